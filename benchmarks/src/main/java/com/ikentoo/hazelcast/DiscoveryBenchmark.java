@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ecs.model.Task;
+import com.hazelcast.logging.NoLogFactory;
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the discovery hot path against an in-memory ECS. Run with the GC profiler to see
+ * the allocation rate: {@code java -jar target/benchmarks.jar -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiscoveryBenchmark {
+
+    private static final String METADATA =
+            "{\n"
+                    + "    \"Cluster\": \"default\",\n"
+                    + "    \"ContainerInstanceARN\": \"arn:aws:ecs:us-west-2:012345678910:container-instance/1f73d099-b914-411c-a9ff-81633b7741dd\",\n"
+                    + "    \"TaskARN\": \"arn:aws:ecs:us-west-2:012345678910:task/d90675f8-1a98-444b-805b-3d9cabb6fcd4\",\n"
+                    + "    \"ContainerName\": \"metadata\"\n"
+                    + "}";
+
+    @Param({"10", "100", "1000", "10000"})
+    public int tasks;
+
+    @Param({"5701", "5701-5720"})
+    public String ports;
+
+    @Param({"3"})
+    public int containersPerTask;
+
+    private InMemoryEcs ecs;
+    private AwsEcsDiscoveryStrategy strategy;
+    private List<Task> describedTasks;
+
+    @Setup
+    public void setup() {
+        ecs = new InMemoryEcs(tasks, containersPerTask);
+        describedTasks = ecs.tasks();
+
+        Map<String, Comparable> properties = new HashMap<>();
+        properties.put("cluster", InMemoryEcs.CLUSTER);
+        properties.put("service", InMemoryEcs.SERVICE);
+        properties.put("ports", ports);
+        properties.put("region", "benchmark");
+        // the shared rate limit would otherwise dominate the measurement
+        properties.put("api-rate-limit", Integer.MAX_VALUE);
+        properties.put("api-burst", Integer.MAX_VALUE);
+        strategy =
+                new AwsEcsDiscoveryStrategy(
+                        new NoLogFactory().getLogger("benchmark"),
+                        properties,
+                        new SdkEcsTransport(ecs),
+                        null,
+                        null,
+                        null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        strategy.destroy();
+    }
+
+    @Benchmark
+    public Iterable<DiscoveryNode> discoverNodes() {
+        return strategy.discoverNodes();
+    }
+
+    @Benchmark
+    public List<List<String>> toChunks() {
+        return AwsEcsDiscoveryStrategy.toChunks(100, ecs.taskArns());
+    }
+
+    @Benchmark
+    public List<Address> fromTask() {
+        List<Address> addresses = new ArrayList<>();
+        for (Task task : describedTasks) {
+            addresses.addAll(strategy.fromTask(task));
+        }
+        return addresses;
+    }
+
+    @Benchmark
+    public EcsTaskMetadataClient.TaskMetadata parseTaskMetadata() throws IOException {
+        return EcsTaskMetadataClient.parse(new StringReader(METADATA));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ecs.AbstractAmazonECS;
+import com.amazonaws.services.ecs.model.Container;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.ListTasksRequest;
+import com.amazonaws.services.ecs.model.ListTasksResult;
+import com.amazonaws.services.ecs.model.NetworkInterface;
+import com.amazonaws.services.ecs.model.Task;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/** ECS stub serving one service with synthetic tasks, without any network or latency. */
+class InMemoryEcs extends AbstractAmazonECS {
+
+    static final String CLUSTER = "bench-cluster";
+    static final String SERVICE = "bench-service";
+
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    private final List<String> taskArns;
+
+    InMemoryEcs(int taskCount, int containersPerTask) {
+        for (int i = 0; i < taskCount; i++) {
+            String taskArn = "arn:aws:ecs:eu-west-1:012345678910:task/" + CLUSTER + "/task-" + i;
+            List<Container> containers = new ArrayList<>();
+            for (int c = 0; c < containersPerTask; c++) {
+                containers.add(
+                        new Container()
+                                .withName(c == 0 ? "hazelcast" : "sidecar-" + c)
+                                .withTaskArn(taskArn)
+                                .withLastStatus("RUNNING")
+                                .withNetworkInterfaces(
+                                        new NetworkInterface()
+                                                .withPrivateIpv4Address(
+                                                        "10."
+                                                                + (i >> 16 & 255)
+                                                                + "."
+                                                                + (i >> 8 & 255)
+                                                                + "."
+                                                                + (i & 255))));
+            }
+            tasks.put(
+                    taskArn,
+                    new Task()
+                            .withTaskArn(taskArn)
+                            .withLastStatus("RUNNING")
+                            .withDesiredStatus("RUNNING")
+                            .withContainers(containers));
+        }
+        taskArns = new ArrayList<>(tasks.keySet());
+    }
+
+    List<Task> tasks() {
+        return new ArrayList<>(tasks.values());
+    }
+
+    List<String> taskArns() {
+        return taskArns;
+    }
+
+    @Override
+    public ListTasksResult listTasks(ListTasksRequest request) {
+        int from = request.getNextToken() == null ? 0 : Integer.parseInt(request.getNextToken());
+        int to = Math.min(taskArns.size(), from + 100);
+        return new ListTasksResult()
+                .withTaskArns(new ArrayList<>(taskArns.subList(from, to)))
+                .withNextToken(to < taskArns.size() ? String.valueOf(to) : null);
+    }
+
+    @Override
+    public DescribeTasksResult describeTasks(DescribeTasksRequest request) {
+        return new DescribeTasksResult()
+                .withTasks(request.getTasks().stream().map(tasks::get).collect(Collectors.toList()));
+    }
+
+    @Override
+    public void shutdown() {}
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.lang.String.format;
+
+import com.hazelcast.logging.ILogger;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Counters and latency histograms of the discovery, exposed as an MXBean. */
+final class AwsEcsDiscoveryMetrics implements AwsEcsDiscoveryMetricsMXBean {
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final LatencyHistogram rounds = new LatencyHistogram();
+    private final ConcurrentMap<String, LatencyHistogram> apiCalls = new ConcurrentHashMap<>();
+    private final LongAdder pages = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder throttles = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder sharedRounds = new LongAdder();
+    private final AtomicLong tasksSeen = new AtomicLong();
+    private final AtomicLong addressesReturned = new AtomicLong();
+    private final LongSupplier snapshotAgeMillis;
+
+    private ObjectName objectName;
+
+    AwsEcsDiscoveryMetrics(LongSupplier snapshotAgeMillis) {
+        this.snapshotAgeMillis = snapshotAgeMillis;
+    }
+
+    void register(ILogger logger) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name =
+                    new ObjectName(
+                            "com.ikentoo.hazelcast:type=AwsEcsDiscovery,name=strategy-"
+                                    + INSTANCES.incrementAndGet());
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (Exception e) {
+            logger.warning("Couldn't register the discovery metrics MBean", e);
+        }
+    }
+
+    void unregister(ILogger logger) {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            logger.warning("Couldn't unregister the discovery metrics MBean", e);
+        }
+        objectName = null;
+    }
+
+    void round(long nanos, int tasks, int addresses) {
+        rounds.record(nanos);
+        tasksSeen.set(tasks);
+        addressesReturned.set(addresses);
+    }
+
+    void apiCall(String operation, long nanos) {
+        apiCalls.computeIfAbsent(operation, op -> new LatencyHistogram()).record(nanos);
+    }
+
+    void page() {
+        pages.increment();
+    }
+
+    void chunk() {
+        chunks.increment();
+    }
+
+    void throttle() {
+        throttles.increment();
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    void fallback() {
+        fallbacks.increment();
+    }
+
+    void sharedRound() {
+        sharedRounds.increment();
+    }
+
+    @Override
+    public long getRounds() {
+        return rounds.count();
+    }
+
+    @Override
+    public long getRoundLatencyP50Millis() {
+        return rounds.percentileMillis(0.5);
+    }
+
+    @Override
+    public long getRoundLatencyP99Millis() {
+        return rounds.percentileMillis(0.99);
+    }
+
+    @Override
+    public long getRoundLatencyMaxMillis() {
+        return rounds.maxMillis();
+    }
+
+    @Override
+    public long getApiCalls() {
+        return apiCalls.values().stream().mapToLong(LatencyHistogram::count).sum();
+    }
+
+    @Override
+    public Map<String, Long> getApiCallsByOperation() {
+        return byOperation(LatencyHistogram::count);
+    }
+
+    @Override
+    public Map<String, Long> getApiCallLatencyP50Millis() {
+        return byOperation(histogram -> histogram.percentileMillis(0.5));
+    }
+
+    @Override
+    public Map<String, Long> getApiCallLatencyP99Millis() {
+        return byOperation(histogram -> histogram.percentileMillis(0.99));
+    }
+
+    private Map<String, Long> byOperation(ToLongFunction<LatencyHistogram> value) {
+        Map<String, Long> result = new TreeMap<>();
+        apiCalls.forEach(
+                (operation, histogram) -> result.put(operation, value.applyAsLong(histogram)));
+        return result;
+    }
+
+    @Override
+    public long getPages() {
+        return pages.sum();
+    }
+
+    @Override
+    public long getChunks() {
+        return chunks.sum();
+    }
+
+    @Override
+    public long getThrottles() {
+        return throttles.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    public long getSharedRounds() {
+        return sharedRounds.sum();
+    }
+
+    @Override
+    public long getTasksSeen() {
+        return tasksSeen.get();
+    }
+
+    @Override
+    public long getAddressesReturned() {
+        return addressesReturned.get();
+    }
+
+    @Override
+    public long getSnapshotAgeMillis() {
+        long age = snapshotAgeMillis.getAsLong();
+        return age == Long.MAX_VALUE ? -1 : age;
+    }
+
+    @Override
+    public String toString() {
+        return format(
+                "rounds=%d (p50=%dms, p99=%dms, max=%dms), apiCalls=%s, pages=%d, chunks=%d,"
+                        + " throttles=%d, errors=%d, fallbacks=%d, shared=%d, tasks=%d,"
+                        + " addresses=%d, snapshotAge=%dms",
+                getRounds(),
+                getRoundLatencyP50Millis(),
+                getRoundLatencyP99Millis(),
+                getRoundLatencyMaxMillis(),
+                getApiCallsByOperation(),
+                getPages(),
+                getChunks(),
+                getThrottles(),
+                getErrors(),
+                getFallbacks(),
+                getSharedRounds(),
+                getTasksSeen(),
+                getAddressesReturned(),
+                getSnapshotAgeMillis());
+    }
+
+    /** histogram with power of two millisecond buckets, precise enough for network latencies */
+    static final class LatencyHistogram {
+        private static final int BUCKETS = 20;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(nanos, 0));
+            counts.incrementAndGet(bucket(millis));
+            max.accumulateAndGet(millis, Math::max);
+        }
+
+        /** bucket i holds latencies up to 2^i - 1 ms */
+        private static int bucket(long millis) {
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += counts.get(i);
+            }
+            return count;
+        }
+
+        long maxMillis() {
+            return max.get();
+        }
+
+        /** upper bound of the bucket containing the percentile, never above the maximum */
+        long percentileMillis(double percentile) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min((1L << i) - 1, maxMillis());
+                }
+            }
+            return maxMillis();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import java.util.Map;
+
+/** Discovery metrics of one {@link AwsEcsDiscoveryStrategy}, latencies are in milliseconds. */
+public interface AwsEcsDiscoveryMetricsMXBean {
+
+    long getRounds();
+
+    long getRoundLatencyP50Millis();
+
+    long getRoundLatencyP99Millis();
+
+    long getRoundLatencyMaxMillis();
+
+    long getApiCalls();
+
+    Map<String, Long> getApiCallsByOperation();
+
+    Map<String, Long> getApiCallLatencyP50Millis();
+
+    Map<String, Long> getApiCallLatencyP99Millis();
+
+    long getPages();
+
+    long getChunks();
+
+    long getThrottles();
+
+    long getErrors();
+
+    long getFallbacks();
+
+    /** rounds which returned the result of another strategy's round with the same target */
+    long getSharedRounds();
+
+    long getTasksSeen();
+
+    long getAddressesReturned();
+
+    /** age of the discovered addresses, -1 when nothing was discovered yet */
+    long getSnapshotAgeMillis();
+}
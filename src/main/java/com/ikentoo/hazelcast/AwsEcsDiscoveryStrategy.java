@@ -18,178 +18,1009 @@
 package com.ikentoo.hazelcast;
 
 import static java.lang.String.format;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Comparator.comparing;
 
-import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkBaseException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.ecs.AmazonECSClientBuilder;
 import com.amazonaws.services.ecs.model.*;
+import com.hazelcast.core.HazelcastException;
 import com.hazelcast.logging.ILogger;
 import com.hazelcast.nio.Address;
 import com.hazelcast.spi.discovery.AbstractDiscoveryStrategy;
 import com.hazelcast.spi.discovery.DiscoveryNode;
 import com.hazelcast.spi.discovery.SimpleDiscoveryNode;
+import com.hazelcast.spi.partitiongroup.PartitionGroupMetaData;
 import com.hazelcast.util.StringUtil;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URI;
+import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.regex.Matcher;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @SuppressWarnings("raw")
 public class AwsEcsDiscoveryStrategy extends AbstractDiscoveryStrategy {
 
+    /** node property holding the task definition family and revision of the node's task */
+    public static final String TASK_DEFINITION_PROPERTY = "aws-ecs-task-definition";
+    /** node property holding the launch type (EC2 or FARGATE) of the node's task */
+    public static final String LAUNCH_TYPE_PROPERTY = "aws-ecs-launch-type";
+
+    /** error codes of ECS when the listed service or its cluster were deleted */
+    private static final Set<String> NOT_FOUND_ERRORS =
+            new HashSet<>(Arrays.asList("ServiceNotFoundException", "ClusterNotFoundException"));
+
+    /** whether aws-java-sdk-ec2 was added, it is only needed by the bridge and host modes */
+    private static final boolean EC2_SDK = AwsEcsProperties.Config.hasSdk(Ec2Hosts.SDK_CLASS);
+
     private final AwsEcsProperties.Config config;
-    private final Set<Address> previousValues =
-            new ConcurrentSkipListSet<>(
-                    comparing(Address::getHost).thenComparing(Address::getPort));
+    /** the discovered nodes, replaced as a whole so that readers never see a partial update */
+    private final AtomicReference<DiscoverySnapshot> published =
+            new AtomicReference<>(DiscoverySnapshot.EMPTY);
+
+    private final CompletableFuture<EcsTaskMetadataClient.TaskMetadata> ownTask;
+    /** availability zone of the own task when the task metadata doesn't provide it */
+    private volatile String discoveredZone;
+
+    private final EcsRateLimiter rateLimiter;
+    private final AwsEcsDiscoveryMetrics metrics;
+
+    private volatile EcsTransport client;
+    private volatile CloudMapDiscovery cloudMap;
+    private volatile Ec2Hosts ec2Hosts;
+    /** set once the missing EC2 module was logged, not to warn about it on every round */
+    private volatile boolean ec2Missing;
+    private volatile ExecutorService executor;
+    private volatile ScheduledExecutorService scheduler;
+    /** set by destroy(), the clients and pools are not built again afterwards */
+    private volatile boolean destroyed;
+
+    private static final long NO_SNAPSHOT = Long.MIN_VALUE;
+    private final Object refreshLock = new Object();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private volatile long snapshotNanos = NO_SNAPSHOT;
+
+    private volatile Cached<List<Pair<String, String>>> resolvedServices;
+
+    private final Map<String, Task> knownTasks = new ConcurrentHashMap<>();
+    private volatile long lastFullDescribeNanos = System.nanoTime();
+
+    private final Map<String, TaskDefinition> taskDefinitions = new ConcurrentHashMap<>();
+    /** private IP of the EC2 host of each container instance, for the bridge and host modes */
+    private final Map<String, InetAddress> hostIps = new ConcurrentHashMap<>();
 
-    private final String taskArn;
+    private final DiscoverySnapshotFile snapshotFile;
+    /** the nodes loaded from the snapshot file are served until the first round completes */
+    private volatile boolean servingPersisted;
+
+    private volatile EcsTaskEventQueue events;
+    private final ReachabilityProbe probe;
+    /** "clusterArn service:name" of the services matching the patterns, for the event mode */
+    private volatile Set<String> watchedGroups = Collections.emptySet();
 
     public AwsEcsDiscoveryStrategy(ILogger logger, Map<String, Comparable> properties) {
+        this(logger, properties, null, null, null, null);
+    }
+
+    /** uses the given clients and event queue instead of building them from the properties */
+    AwsEcsDiscoveryStrategy(
+            ILogger logger,
+            Map<String, Comparable> properties,
+            EcsTransport client,
+            EcsTaskEventQueue events,
+            CloudMapDiscovery cloudMap,
+            Ec2Hosts ec2Hosts) {
         super(logger, properties);
-        this.taskArn = getOwnTaskArn(logger);
+        this.client = client;
+        this.events = events;
+        this.cloudMap = cloudMap;
+        this.ec2Hosts = ec2Hosts;
+        // the metadata is read in the background so that the member startup never waits on it
+        this.ownTask = new EcsTaskMetadataClient(logger).fetchAsync();
         this.config = AwsEcsProperties.fromProps(properties);
+        this.metrics = new AwsEcsDiscoveryMetrics(this::snapshotAgeMillis);
+        this.snapshotFile =
+                config.getSnapshotFile() == null
+                        ? null
+                        : new DiscoverySnapshotFile(config.getSnapshotFile());
+        this.probe =
+                config.getProbeTimeoutMillis() > 0
+                        ? new ReachabilityProbe(config.getProbeTimeoutMillis(), logger)
+                        : null;
+        this.rateLimiter =
+                EcsRateLimiter.shared(
+                        config.getRateLimiterKey(), config.getApiRateLimit(), config.getApiBurst());
     }
 
     public static String getOwnTaskArn(ILogger logger) {
+        EcsTaskMetadataClient.TaskMetadata metadata = new EcsTaskMetadataClient(logger).fetch();
+        return metadata == null ? null : metadata.getTaskArn();
+    }
+
+    /**
+     * The metadata of the own task, waits for the metadata client which gives up after a few
+     * bounded attempts.
+     */
+    private EcsTaskMetadataClient.TaskMetadata ownTask() {
+        EcsTaskMetadataClient.TaskMetadata metadata = ownTask.join();
+        return metadata == null ? EcsTaskMetadataClient.TaskMetadata.UNKNOWN : metadata;
+    }
+
+    private String ownZone() {
+        String zone = ownTask().getAvailabilityZone();
+        return zone != null ? zone : discoveredZone;
+    }
+
+    @Override
+    public void start() {
+        if (config.isCloudMap()) {
+            cloudMap();
+        } else {
+            client();
+        }
+        if (config.getEventQueueUrl() != null && events == null) {
+            events = EcsTaskEventQueue.create(config, getLogger());
+        }
+        metrics.register(getLogger());
+        if (snapshotFile != null) {
+            loadSnapshot();
+        }
+        if (config.isCacheEnabled()) {
+            long interval = config.getRefreshIntervalMillis();
+            scheduler()
+                    .scheduleWithFixedDelay(
+                            this::backgroundRefresh, 0, interval, TimeUnit.MILLISECONDS);
+        }
+        if (events != null) {
+            events.start(this::isWatched, this::publishEvents);
+        }
+    }
+
+    /**
+     * Serves the persisted nodes if they are recent enough, while the first round runs in the
+     * background.
+     */
+    private void loadSnapshot() {
+        DiscoverySnapshotFile.Snapshot snapshot;
         try {
+            snapshot = snapshotFile.read();
+        } catch (IOException e) {
+            getLogger().warning("Ignoring the discovery snapshot file", e);
+            return;
+        }
+        if (snapshot == null) {
+            return;
+        }
+        long ageMillis = Math.max(0, System.currentTimeMillis() - snapshot.timestampMillis);
+        if (ageMillis > config.getSnapshotMaxAgeMillis()) {
+            getLogger().info(format("Ignoring the discovery snapshot of %d ms ago", ageMillis));
+            return;
+        }
+        publish(snapshot.nodes);
+        snapshotNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(ageMillis);
+        servingPersisted = true;
+        getLogger()
+                .info(
+                        format(
+                                "Using %d nodes of the discovery snapshot of %d ms ago",
+                                snapshot.nodes.size(), ageMillis));
+        if (!config.isCacheEnabled()) {
+            triggerBackgroundRefresh();
+        }
+    }
 
-            logger.fine(format("SYSTEM_ENV=%s", System.getenv()));
-            URI metaDataUri = getMetaDataUri();
-            if (metaDataUri == null) {
-                return null;
-            }
-            BufferedReader reader =
-                    new BufferedReader(
-                            new InputStreamReader(metaDataUri.toURL().openStream(), UTF_8));
-            String content = reader.lines().onClose(close(reader)).collect(Collectors.joining(" "));
+    @Override
+    public synchronized void destroy() {
+        destroyed = true;
+        metrics.unregister(getLogger());
+        if (events != null) {
+            events.stop();
+            events = null;
+        }
+        if (client != null) {
+            client.shutdown();
+            client = null;
+        }
+        if (cloudMap != null) {
+            cloudMap.shutdown();
+            cloudMap = null;
+        }
+        if (ec2Hosts != null) {
+            ec2Hosts.shutdown();
+            ec2Hosts = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
 
-            logger.fine(format("AWS_META=%s", content));
-            Pattern pattern = Pattern.compile("^.*\"TaskARN\" *: *\"([^\"]+)\".*$", Pattern.DOTALL);
-            Matcher matcher = pattern.matcher(content);
+    /** a refresh still running during destroy() must not build new clients or pools */
+    private void checkNotDestroyed() {
+        if (destroyed) {
+            throw new IllegalStateException("The discovery strategy is destroyed");
+        }
+    }
 
-            if (!matcher.matches()) {
-                logger.warning("couldn't get taskARN from content: " + content);
-                return null;
+    /** single daemon thread running the background refreshes of the cache mode */
+    private ScheduledExecutorService scheduler() {
+        ScheduledExecutorService current = scheduler;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            checkNotDestroyed();
+            if (scheduler == null) {
+                scheduler =
+                        Executors.newSingleThreadScheduledExecutor(
+                                runnable -> {
+                                    Thread thread =
+                                            new Thread(runnable, "hz-aws-ecs-discovery-refresh");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                });
             }
-            String arn = matcher.group(1);
-            logger.fine(format("TaskARN=%s", arn));
-            return matcher.group(1);
+            return scheduler;
+        }
+    }
 
-        } catch (Exception e) {
-            logger.severe("couldn't get taskARN", e);
-            return null;
+    /**
+     * ECS calls run on a bounded pool when parallelism is configured, otherwise inline on the
+     * discovering thread. Tasks on the pool only submit further calls and never wait on them, so
+     * a small pool can not deadlock.
+     */
+    private Executor executor() {
+        if (config.getParallelism() <= 1) {
+            return Runnable::run;
+        }
+        ExecutorService current = executor;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            checkNotDestroyed();
+            if (executor == null) {
+                AtomicInteger threadCount = new AtomicInteger();
+                executor =
+                        Executors.newFixedThreadPool(
+                                config.getParallelism(),
+                                runnable -> {
+                                    Thread thread =
+                                            new Thread(
+                                                    runnable,
+                                                    "hz-aws-ecs-discovery-"
+                                                            + threadCount.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                });
+            }
+            return executor;
         }
     }
 
-    private static URI getMetaDataUri() {
-        String uri = System.getenv("ECS_CONTAINER_METADATA_URI");
-        if (uri != null && !uri.isEmpty()) {
-            return URI.create(uri + "/task");
+    /** the ECS transport is built once and kept for the lifetime of the strategy */
+    private EcsTransport client() {
+        EcsTransport current = client;
+        if (current != null) {
+            return current;
         }
-        uri = System.getenv("ECS_CONTAINER_METADATA_FILE");
-        if (uri != null && !uri.isEmpty()) {
-            if (!uri.startsWith("file:")) {
-                uri = "file://" + uri;
+        synchronized (this) {
+            checkNotDestroyed();
+            if (client == null) {
+                client = sdkTransport();
             }
-            return URI.create(uri);
+            return client;
         }
-        return null;
     }
 
-    private static Runnable close(BufferedReader reader) {
-        return () -> {
-            try {
-                reader.close();
-            } catch (IOException e) {
+    private EcsTransport sdkTransport() {
+        AmazonECSClientBuilder clientBuilder =
+                AmazonECSClientBuilder.standard()
+                        .withClientConfiguration(config.getClientConfiguration());
+        config.getAwsCredentialsProvider().ifPresent(clientBuilder::withCredentials);
+        config.getAwsRegion().ifPresent(clientBuilder::withRegion);
+        return new SdkEcsTransport(clientBuilder.build());
+    }
+
+
+    /** the Cloud Map discovery of the cloud-map backend, built like the ECS client */
+    private CloudMapDiscovery cloudMap() {
+        CloudMapDiscovery current = cloudMap;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            checkNotDestroyed();
+            if (cloudMap == null) {
+                cloudMap = CloudMapDiscovery.create(config, getLogger());
+            }
+            return cloudMap;
+        }
+    }
+
+    /** the EC2 hosts of the bridge and host modes, their client is built like the ECS one */
+    private Ec2Hosts ec2Hosts() {
+        Ec2Hosts current = ec2Hosts;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            checkNotDestroyed();
+            if (ec2Hosts == null) {
+                ec2Hosts = Ec2Hosts.create(config);
             }
-        };
+            return ec2Hosts;
+        }
     }
 
     @Override
     public Iterable<DiscoveryNode> discoverNodes() {
-        getLogger().fine(format("Discovering nodes in AWS ECS %s", config));
+        if (config.isCacheEnabled()) {
+            return cachedNodes();
+        }
+        if (servingPersisted && snapshotAgeMillis() <= config.getSnapshotMaxAgeMillis()) {
+            // the first round is still running or failed, it is retried in the background
+            triggerBackgroundRefresh();
+            return nodes();
+        }
+        refresh();
+        return nodes();
+    }
+
+    private Iterable<DiscoveryNode> nodes() {
+        return published.get().getNodes();
+    }
+
+    /** the last published generation of nodes */
+    DiscoverySnapshot snapshot() {
+        return published.get();
+    }
+
+    /** the diagnostics of the rounds, registered as MBean and logged at FINE after each round */
+    AwsEcsDiscoveryMetrics metrics() {
+        return metrics;
+    }
+
+    /** publishes the nodes as the next generation */
+    private DiscoverySnapshot publish(List<DiscoveryNode> nodes) {
+        DiscoverySnapshot next = published.updateAndGet(current -> current.next(nodes));
+        if (next.isChanged() && getLogger().isFineEnabled()) {
+            getLogger()
+                    .fine(
+                            format(
+                                    "Discovered nodes generation %d: added %s, removed %s",
+                                    next.getGeneration(),
+                                    addresses(next.getAdded()),
+                                    addresses(next.getRemoved())));
+        }
+        return next;
+    }
+
+    private static List<Address> addresses(List<DiscoveryNode> nodes) {
+        return nodes.stream().map(DiscoveryNode::getPrivateAddress).collect(Collectors.toList());
+    }
+
+    /** reports the availability zone of the own task, used by zone aware partition grouping */
+    @Override
+    public Map<String, Object> discoverLocalMetadata() {
+        String zone = ownZone();
+        return zone == null
+                ? Collections.emptyMap()
+                : Collections.singletonMap(PartitionGroupMetaData.PARTITION_GROUP_ZONE, zone);
+    }
+
+    /**
+     * Serves the last discovered addresses (stale-while-revalidate). Only blocks when nothing has
+     * been discovered yet or the snapshot is older than the configured maximum age, once the ttl
+     * is exceeded a refresh is triggered in the background.
+     */
+    private Iterable<DiscoveryNode> cachedNodes() {
+        long age = snapshotAgeMillis();
+        if (age > config.getCacheMaxAgeMillis()) {
+            synchronized (refreshLock) {
+                // a concurrent refresh might have completed while waiting
+                if (snapshotAgeMillis() > config.getCacheMaxAgeMillis()) {
+                    refresh();
+                }
+            }
+        } else if (age > config.getCacheTtlMillis()) {
+            triggerBackgroundRefresh();
+        }
+        return nodes();
+    }
+
+    /** runs a refresh in the background unless one is pending already */
+    private void triggerBackgroundRefresh() {
+        if (refreshPending.compareAndSet(false, true)) {
+            scheduler()
+                    .execute(
+                            () -> {
+                                try {
+                                    backgroundRefresh();
+                                } finally {
+                                    refreshPending.set(false);
+                                }
+                            });
+        }
+    }
+
+    private long snapshotAgeMillis() {
+        long refreshedAt = snapshotNanos;
+        return refreshedAt == NO_SNAPSHOT
+                ? Long.MAX_VALUE
+                : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - refreshedAt);
+    }
+
+    private void backgroundRefresh() {
         try {
+            synchronized (refreshLock) {
+                refresh();
+            }
+        } catch (Exception e) {
+            getLogger().warning("Background refresh of discovered addresses failed", e);
+        }
+    }
 
-            AmazonECSClientBuilder clientBuilder = AmazonECSClientBuilder.standard();
-            config.getAwsCredentialsProvider().ifPresent(clientBuilder::withCredentials);
-            config.getAwsRegion().ifPresent(clientBuilder::withRegion);
-            AmazonECS client = clientBuilder.build();
-
-            List<Task> tasks;
-            if (!StringUtil.isNullOrEmptyAfterTrim(config.getClusterName())
-                    && !StringUtil.isNullOrEmptyAfterTrim(config.getServiceName())) {
-                tasks =
-                        tasksForClusterAndService(
-                                client, config.getClusterName(), config.getServiceName());
+    private void refresh() {
+        if (destroyed) {
+            return;
+        }
+        getLogger().fine(format("Discovering nodes in AWS ECS %s", config));
+        long started = System.nanoTime();
+        DiscoveryEvents.Round round = DiscoveryEvents.round();
+        try {
+            List<DiscoveryNode> nodes;
+            int discovered;
+            if (config.isCloudMap()) {
+                List<CloudMapDiscovery.Instance> instances = shared(this::discoverInstances);
+                discovered = instances.size();
+                nodes = fromInstances(instances);
             } else {
-                tasks =
-                        tasksForClusterAndServicePattern(
-                                client,
-                                config.getClusterNameRegexp(),
-                                config.getServiceNameRegexp());
-            }
-
-            List<Address> addresses =
-                    tasks.stream()
-                            // remove own task
-                            .filter(
-                                    task -> {
-                                        getLogger()
-                                                .fine(
-                                                        format(
-                                                                "local task [%s], discovered task [%s]",
-                                                                this.taskArn, task.getTaskArn()));
-                                        return !task.getTaskArn().equals(taskArn);
-                                    })
-                            .flatMap(this::fromTask)
-                            .collect(Collectors.toList());
-
-            previousValues.clear();
-            previousValues.addAll(addresses);
+                List<Task> discoveredTasks = discoverTasks(started);
+                discovered = discoveredTasks.size();
+                nodes = toNodes(discoveredTasks);
+            }
+            if (probe != null) {
+                nodes = probe.probe(nodes, zoneOrder());
+            }
+            long generation = publish(nodes).getGeneration();
+            snapshotNanos = System.nanoTime();
+            servingPersisted = false;
+            if (snapshotFile != null) {
+                persist(nodes);
+            }
+            metrics.round(snapshotNanos - started, discovered, nodes.size());
+            round.succeeded(
+                    config.isCloudMap() ? "cloud-map" : "ecs",
+                    discovered,
+                    nodes.size(),
+                    generation);
+            getLogger().fine(format("Discovery metrics %s", metrics));
 
         } catch (Exception e) {
+            if (destroyed) {
+                // the clients were shut down under the round
+                return;
+            }
+            metrics.error();
+            round.failed(e);
             if (config.isFailFast()) {
                 throw e;
             }
+            metrics.fallback();
+            DiscoveryEvents.fallback(e, snapshot().getNodes().size(), snapshotAgeMillis());
             getLogger().severe("Couldn't discover addresses using previous values", e);
         }
-        return previousValues.stream().map(SimpleDiscoveryNode::new).collect(Collectors.toList());
     }
 
-    private Stream<Address> fromTask(Task task) {
-        return task.getContainers().stream()
-                .filter(container -> container.getName().matches(config.getContainerNameFilter()))
-                .flatMap(this::fromContainer);
+    /** lists and describes the tasks of the configured services */
+    private List<Task> discoverTasks(long started) {
+        EcsTransport client = client();
+        if (config.isIncrementalDiscovery()) {
+            long now = System.nanoTime();
+            if (now - lastFullDescribeNanos
+                    >= TimeUnit.MILLISECONDS.toNanos(config.getFullDescribeIntervalMillis())) {
+                // forget everything so that all tasks are described again
+                knownTasks.clear();
+                lastFullDescribeNanos = now;
+            }
+        }
+
+        List<Task> discoveredTasks = shared(() -> tasksOfServices(client));
+        if (config.isIncrementalDiscovery()) {
+            // drop the tasks which are not listed anymore
+            knownTasks
+                    .keySet()
+                    .retainAll(
+                            discoveredTasks.stream()
+                                    .map(Task::getTaskArn)
+                                    .collect(Collectors.toSet()));
+        }
+        EcsTaskEventQueue events = this.events;
+        if (events != null) {
+            // the events received during the round are more recent than the described tasks
+            discoveredTasks = events.reconcile(discoveredTasks, started);
+        }
+        if (config.isExactPorts()) {
+            describeTaskDefinitions(client, discoveredTasks);
+        }
+        resolveHosts(client, discoveredTasks);
+        return discoveredTasks;
     }
 
-    private Stream<Address> fromContainer(Container container) {
-        return container.getNetworkInterfaces().stream().flatMap(this::fromNetworkInterface);
+    /** all tasks of the configured services, before any filtering */
+    private List<Task> tasksOfServices(EcsTransport client) {
+        CompletableFuture<List<Task>> tasks;
+        if (!StringUtil.isNullOrEmptyAfterTrim(config.getClusterName())
+                && !StringUtil.isNullOrEmptyAfterTrim(config.getServiceName())) {
+            tasks =
+                    tasksForClusterAndService(
+                            client, config.getClusterName(), config.getServiceName());
+        } else {
+            tasks =
+                    tasksForClusterAndServicePattern(
+                            client, config.getClusterNameRegexp(), config.getServiceNameRegexp());
+        }
+        return join(tasks);
     }
 
-    private Stream<Address> fromNetworkInterface(NetworkInterface networkInterface) {
-        return config.getPorts()
-                .mapToObj(
-                        port -> {
-                            try {
-                                return new Address(networkInterface.getPrivateIpv4Address(), port);
-                            } catch (UnknownHostException e) {
-                                getLogger().severe(e.getMessage());
-                                return null;
-                            }
-                        })
-                .filter(Objects::nonNull);
+    /**
+     * Joins the in-flight round of another strategy of the JVM discovering the same tasks, if
+     * there is one, so that they share its calls and result.
+     */
+    private <T> T shared(Supplier<T> round) {
+        String key = config.getSharingKey();
+        return key == null
+                ? round.get()
+                : SharedDiscovery.discover(key, round, metrics::sharedRound);
+    }
+
+    /**
+     * Applies the task state changes received as events to the nodes. Only happens after a first
+     * round, the events alone don't know about the tasks which didn't change.
+     */
+    private void publishEvents() {
+        synchronized (refreshLock) {
+            EcsTaskEventQueue events = this.events;
+            if (events == null || snapshotNanos == NO_SNAPSHOT || servingPersisted) {
+                return;
+            }
+            try {
+                List<Task> tasks = events.tasks();
+                if (config.isExactPorts()) {
+                    describeTaskDefinitions(client(), tasks);
+                }
+                resolveHosts(client(), tasks);
+                List<DiscoveryNode> nodes = toNodes(tasks);
+                if (probe != null) {
+                    nodes = probe.probe(nodes, zoneOrder());
+                }
+                nodes = publish(nodes).getNodes();
+                if (snapshotFile != null) {
+                    persist(nodes);
+                }
+            } catch (RuntimeException e) {
+                getLogger().warning("Couldn't apply the ECS task events", e);
+            }
+        }
+    }
+
+    /** whether a task state change event concerns one of the discovered services */
+    private boolean isWatched(Task task) {
+        String group = task.getGroup();
+        if (group == null || !group.startsWith("service:") || task.getClusterArn() == null) {
+            return false;
+        }
+        if (!StringUtil.isNullOrEmptyAfterTrim(config.getClusterName())
+                && !StringUtil.isNullOrEmptyAfterTrim(config.getServiceName())) {
+            return lastSegment(task.getClusterArn()).equals(lastSegment(config.getClusterName()))
+                    && group.substring("service:".length())
+                            .equals(lastSegment(config.getServiceName()));
+        }
+        return watchedGroups.contains(task.getClusterArn() + " " + group);
+    }
+
+    /** the name of a resource given by name or arn */
+    private static String lastSegment(String nameOrArn) {
+        return nameOrArn.substring(nameOrArn.lastIndexOf('/') + 1);
+    }
+
+    /** the nodes of the available tasks, except the own one */
+    private List<DiscoveryNode> toNodes(Collection<Task> discoveredTasks) {
+        String taskArn = ownTask().getTaskArn();
+        List<DiscoveryNode> nodes = new ArrayList<>();
+        Set<Address> addresses = new HashSet<>();
+        for (Task task : discoveredTasks) {
+            if (getLogger().isFineEnabled()) {
+                getLogger()
+                        .fine(
+                                format(
+                                        "local task [%s], discovered task [%s]",
+                                        taskArn, task.getTaskArn()));
+            }
+            // remove own task
+            if (task.getTaskArn().equals(taskArn)) {
+                discoveredZone = task.getAvailabilityZone();
+                continue;
+            }
+            if (!matchesTaskFilters(task)) {
+                continue;
+            }
+            if (!isAvailable(task)) {
+                getLogger()
+                        .fine(
+                                format(
+                                        "skipping task [%s] %s %s %s",
+                                        task.getTaskArn(),
+                                        task.getLastStatus(),
+                                        task.getHealthStatus(),
+                                        task.getStopCode()));
+                continue;
+            }
+            Map<String, Object> properties = nodeProperties(task);
+            for (Address address : fromTask(task)) {
+                if (addresses.add(address)) {
+                    nodes.add(new SimpleDiscoveryNode(address, properties));
+                }
+            }
+        }
+        nodes.sort(nodeOrder());
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /** the Cloud Map instances, called like the ECS operations within the rate limit */
+    private List<CloudMapDiscovery.Instance> discoverInstances() {
+        CloudMapDiscovery cloudMap = cloudMap();
+        return call("DiscoverInstances", null, 0, cloudMap::discoverInstances, List::size);
+    }
+
+    /** the nodes of the Cloud Map instances, except the one of the own task */
+    private List<DiscoveryNode> fromInstances(List<CloudMapDiscovery.Instance> instances) {
+        String taskArn = ownTask().getTaskArn();
+        String taskId = taskArn == null ? null : lastSegment(taskArn);
+        for (CloudMapDiscovery.Instance instance : instances) {
+            if (instance.id.equals(taskId)) {
+                discoveredZone = instance.getZone();
+            }
+        }
+        List<DiscoveryNode> nodes = cloudMap().toNodes(instances, taskId);
+        nodes.sort(nodeOrder());
+        return Collections.unmodifiableList(nodes);
+    }
+
+    private void persist(List<DiscoveryNode> nodes) {
+        try {
+            snapshotFile.write(nodes, System.currentTimeMillis());
+        } catch (IOException e) {
+            getLogger().warning("Couldn't write the discovery snapshot file", e);
+        }
+    }
+
+    /** rethrows the original failure of an ECS call instead of the CompletionException */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /** the task metadata every node of the task carries */
+    static Map<String, Object> nodeProperties(Task task) {
+        Map<String, Object> properties = new HashMap<>();
+        if (task.getAvailabilityZone() != null) {
+            properties.put(PartitionGroupMetaData.PARTITION_GROUP_ZONE, task.getAvailabilityZone());
+        }
+        String taskDefinitionArn = task.getTaskDefinitionArn();
+        if (taskDefinitionArn != null) {
+            // arn:aws:ecs:<region>:<account>:task-definition/<family>:<revision>
+            properties.put(
+                    TASK_DEFINITION_PROPERTY,
+                    taskDefinitionArn.substring(taskDefinitionArn.lastIndexOf('/') + 1));
+        }
+        if (task.getLaunchType() != null) {
+            properties.put(LAUNCH_TYPE_PROPERTY, task.getLaunchType());
+        }
+        return Collections.unmodifiableMap(properties);
+    }
+
+    /**
+     * Nodes are ordered by address, with same-zone-first the nodes in the own availability zone
+     * come first so that joins reach the closest members first.
+     */
+    private Comparator<DiscoveryNode> nodeOrder() {
+        return zoneOrder()
+                .thenComparing(node -> node.getPrivateAddress().getHost())
+                .thenComparing(node -> node.getPrivateAddress().getPort());
+    }
+
+    /** with same-zone-first the nodes of the own zone first, otherwise all nodes are equal */
+    private Comparator<DiscoveryNode> zoneOrder() {
+        String zone = ownZone();
+        if (!config.isSameZoneFirst() || zone == null) {
+            return (left, right) -> 0;
+        }
+        return comparing(
+                (DiscoveryNode node) ->
+                        !zone.equals(
+                                node.getProperties()
+                                        .get(PartitionGroupMetaData.PARTITION_GROUP_ZONE)));
+    }
+
+    /**
+     * Whether the task matches task-family, started-by and task-tags. The family is already
+     * filtered by ECS, it is checked again for the tasks received as events.
+     */
+    boolean matchesTaskFilters(Task task) {
+        if (config.getTaskFamily() != null
+                && !config.getTaskFamily().equals(family(task.getTaskDefinitionArn()))) {
+            return false;
+        }
+        if (config.getStartedBy() != null && !config.getStartedBy().equals(task.getStartedBy())) {
+            return false;
+        }
+        for (Map.Entry<String, String> tag : config.getTaskTags().entrySet()) {
+            if (!hasTag(task, tag.getKey(), tag.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** arn:aws:ecs:<region>:<account>:task-definition/<family>:<revision> */
+    private static String family(String taskDefinitionArn) {
+        if (taskDefinitionArn == null) {
+            return null;
+        }
+        String familyAndRevision =
+                taskDefinitionArn.substring(taskDefinitionArn.lastIndexOf('/') + 1);
+        int separator = familyAndRevision.lastIndexOf(':');
+        return separator < 0 ? familyAndRevision : familyAndRevision.substring(0, separator);
+    }
+
+    private static boolean hasTag(Task task, String key, String value) {
+        if (task.getTags() != null) {
+            for (Tag tag : task.getTags()) {
+                if (key.equals(tag.getKey()) && (value == null || value.equals(tag.getValue()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the task can accept connections: it isn't stopping and its status and health are
+     * among the configured ones.
+     */
+    boolean isAvailable(Task task) {
+        return task.getStopCode() == null
+                && config.getTaskStatuses().contains(task.getLastStatus())
+                && isHealthy(task.getHealthStatus());
+    }
+
+    private boolean isHealthy(String healthStatus) {
+        return config.getHealthStatuses()
+                .contains(healthStatus == null ? HealthStatus.UNKNOWN.toString() : healthStatus);
+    }
+
+    /** containers without a health check report UNKNOWN, the task health covers them */
+    private boolean isAvailable(Container container) {
+        String healthStatus = container.getHealthStatus();
+        return (container.getLastStatus() == null
+                        || config.getTaskStatuses().contains(container.getLastStatus()))
+                && (healthStatus == null
+                        || HealthStatus.UNKNOWN.toString().equals(healthStatus)
+                        || isHealthy(healthStatus));
+    }
+
+    List<Address> fromTask(Task task) {
+        List<Address> addresses = new ArrayList<>();
+        for (Container container : task.getContainers()) {
+            if (config.getContainerNamePattern().matcher(container.getName()).matches()
+                    && isAvailable(container)) {
+                if (hasNetworkInterfaces(container)) {
+                    fromContainer(container, portsOf(task, container), addresses);
+                } else {
+                    fromNetworkBindings(task, container, addresses);
+                }
+            }
+        }
+        return addresses;
+    }
+
+    void fromContainer(Container container, int[] ports, List<Address> addresses) {
+        for (NetworkInterface networkInterface : container.getNetworkInterfaces()) {
+            fromNetworkInterface(networkInterface, ports, addresses);
+        }
+    }
+
+    /**
+     * In the bridge and host network modes the container has no network interface of its own, it
+     * is reached at the IP of its EC2 host on the host ports bound to the configured ports.
+     */
+    void fromNetworkBindings(Task task, Container container, List<Address> addresses) {
+        InetAddress host =
+                task.getContainerInstanceArn() == null
+                        ? null
+                        : hostIps.get(task.getContainerInstanceArn());
+        if (host == null) {
+            getLogger()
+                    .fine(
+                            format(
+                                    "Ignoring container %s of task %s without network interface"
+                                            + " nor known host",
+                                    container.getName(), task.getTaskArn()));
+            return;
+        }
+        if (container.getNetworkBindings() == null) {
+            return;
+        }
+        for (NetworkBinding binding : container.getNetworkBindings()) {
+            if (binding.getHostPort() == null
+                    || binding.getContainerPort() == null
+                    || !config.isPort(binding.getContainerPort())
+                    || "udp".equals(binding.getProtocol())) {
+                continue;
+            }
+            Address address = new Address(host, binding.getHostPort());
+            // a port bound on both the IPv4 and IPv6 wildcards is listed twice
+            if (!addresses.contains(address)) {
+                addresses.add(address);
+            }
+        }
+    }
+
+    private static boolean hasNetworkInterfaces(Container container) {
+        return container.getNetworkInterfaces() != null
+                && !container.getNetworkInterfaces().isEmpty();
+    }
+
+    void fromNetworkInterface(
+            NetworkInterface networkInterface, int[] ports, List<Address> addresses) {
+        InetAddress ip = ipv4(networkInterface.getPrivateIpv4Address());
+        if (ip == null) {
+            getLogger()
+                    .warning(
+                            "Ignoring network interface without IPv4 address "
+                                    + networkInterface.getPrivateIpv4Address());
+            return;
+        }
+        for (int port : ports) {
+            addresses.add(new Address(ip, port));
+        }
+    }
+
+    /**
+     * The configured ports, or with exact-ports only those the container declares in its network
+     * bindings or in the port mappings of its task definition.
+     */
+    int[] portsOf(Task task, Container container) {
+        int[] ports = config.getPorts();
+        if (!config.isExactPorts()) {
+            return ports;
+        }
+        Set<Integer> declared = new HashSet<>();
+        if (container.getNetworkBindings() != null) {
+            for (NetworkBinding binding : container.getNetworkBindings()) {
+                declared.add(binding.getContainerPort());
+            }
+        }
+        ContainerDefinition definition = containerDefinition(task, container.getName());
+        if (definition != null && definition.getPortMappings() != null) {
+            for (PortMapping portMapping : definition.getPortMappings()) {
+                declared.add(portMapping.getContainerPort());
+            }
+        }
+        int[] exposed = Arrays.stream(ports).filter(declared::contains).toArray();
+        if (exposed.length == 0) {
+            getLogger()
+                    .fine(
+                            format(
+                                    "Ignoring container %s of task %s, it declares none of the"
+                                            + " ports %s but %s",
+                                    container.getName(),
+                                    task.getTaskArn(),
+                                    Arrays.toString(ports),
+                                    declared));
+        }
+        return exposed;
+    }
+
+    private ContainerDefinition containerDefinition(Task task, String containerName) {
+        TaskDefinition taskDefinition =
+                task.getTaskDefinitionArn() == null
+                        ? null
+                        : taskDefinitions.get(task.getTaskDefinitionArn());
+        if (taskDefinition == null || taskDefinition.getContainerDefinitions() == null) {
+            return null;
+        }
+        for (ContainerDefinition definition : taskDefinition.getContainerDefinitions()) {
+            if (containerName.equals(definition.getName())) {
+                return definition;
+            }
+        }
+        return null;
+    }
+
+    /** parses an IPv4 literal without ever calling a resolver, null if it isn't one */
+    static InetAddress ipv4(String literal) {
+        if (literal == null) {
+            return null;
+        }
+        byte[] bytes = new byte[4];
+        int part = 0;
+        int value = -1;
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '.') {
+                if (value < 0 || part == 3) {
+                    return null;
+                }
+                bytes[part++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        if (value < 0 || part != 3) {
+            return null;
+        }
+        bytes[3] = (byte) value;
+        try {
+            // no lookup happens when the host name is given along with the address
+            return InetAddress.getByAddress(literal, bytes);
+        } catch (UnknownHostException e) {
+            return null;
+        }
     }
 
     static <T> List<List<T>> toChunks(int size, List<T> list) {
@@ -201,53 +1032,509 @@ public class AwsEcsDiscoveryStrategy extends AbstractDiscoveryStrategy {
                 .collect(Collectors.toList());
     }
 
-    private static List<Task> tasksForClusterAndTaskArns(
-            AmazonECS client, String clusterName, List<String> taskArns) {
-        return toChunks(100, taskArns).stream()
+    /**
+     * Lazily walks a paginated ECS listing, the next page is only requested once the items of the
+     * previous one have been consumed downstream.
+     */
+    static <R> Stream<R> pages(Function<String, R> fetch, Function<R, String> nextToken) {
+        return pages((token, page) -> fetch.apply(token), nextToken);
+    }
+
+    /** the fetch function also gets the 1-based number of the requested page */
+    static <R> Stream<R> pages(
+            BiFunction<String, Integer, R> fetch, Function<R, String> nextToken) {
+        Iterator<R> iterator =
+                new Iterator<R>() {
+                    private String token;
+                    private int page;
+                    private boolean done;
+
+                    @Override
+                    public boolean hasNext() {
+                        return !done;
+                    }
+
+                    @Override
+                    public R next() {
+                        if (done) {
+                            throw new NoSuchElementException();
+                        }
+                        R fetched = fetch.apply(token, ++page);
+                        token = nextToken.apply(fetched);
+                        done = StringUtil.isNullOrEmpty(token);
+                        return fetched;
+                    }
+                };
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(
+                        iterator, Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+
+    /**
+     * Runs an ECS call within the rate limit shared by the JVM, retrying throttled and transient
+     * failures with a jittered backoff. Every attempt is recorded as a JFR event.
+     *
+     * @param cluster the cluster the call is about, null if none
+     * @param page the 1-based page of a paginated listing, 0 for other calls
+     * @param items counts the items of the result
+     */
+    private <T> T call(
+            String operation,
+            String cluster,
+            int page,
+            Supplier<T> request,
+            ToIntFunction<T> items) {
+        long backoffMillis = config.getRetryBaseDelayMillis();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                rateLimiter.acquire();
+                DiscoveryEvents.ApiCall event = DiscoveryEvents.apiCall(operation, cluster, page);
+                long started = System.nanoTime();
+                T result;
+                int count = -1;
+                boolean throttled = false;
+                try {
+                    result = request.get();
+                    count = items.applyAsInt(result);
+                } catch (SdkBaseException e) {
+                    throttled = RetryUtils.isThrottlingException(e);
+                    throw e;
+                } finally {
+                    metrics.apiCall(operation, System.nanoTime() - started);
+                    // also failures which aren't SDK exceptions end their event
+                    event.end(count, throttled);
+                }
+                rateLimiter.onSuccess();
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HazelcastException("Interrupted while waiting for the ECS rate limit", e);
+            } catch (SdkBaseException e) {
+                boolean throttled = RetryUtils.isThrottlingException(e);
+                if (throttled) {
+                    rateLimiter.onThrottled();
+                    metrics.throttle();
+                }
+                if (attempt >= config.getMaxRetries() || !(throttled || isTransient(e))) {
+                    throw e;
+                }
+                backoffMillis =
+                        EcsRateLimiter.nextBackoffMillis(
+                                backoffMillis,
+                                config.getRetryBaseDelayMillis(),
+                                config.getRetryMaxDelayMillis(),
+                                ThreadLocalRandom.current().nextDouble());
+                getLogger()
+                        .fine(
+                                format(
+                                        "ECS call failed (%s), retry %d in %d ms",
+                                        e.getMessage(), attempt + 1, backoffMillis));
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static boolean isTransient(SdkBaseException e) {
+        return e instanceof AmazonServiceException
+                ? RetryUtils.isRetryableServiceException(e)
+                : e instanceof SdkClientException;
+    }
+
+    /** waits for all futures and concatenates their results in submission order */
+    static <T> CompletableFuture<List<T>> merge(List<CompletableFuture<List<T>>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(
+                        done ->
+                                futures.stream()
+                                        .flatMap(future -> future.join().stream())
+                                        .collect(Collectors.toList()));
+    }
+
+    private CompletableFuture<List<Task>> tasksForClusterAndTaskArns(
+            EcsTransport client, String clusterName, List<String> taskArns) {
+        // in incremental mode only tasks which were not seen before are described
+        List<Task> known = new ArrayList<>();
+        List<String> unknownArns = new ArrayList<>();
+        for (String arn : taskArns) {
+            Task task = knownTasks.get(arn);
+            if (task != null) {
+                known.add(task);
+            } else {
+                unknownArns.add(arn);
+            }
+        }
+        List<CompletableFuture<List<Task>>> tasks = new ArrayList<>();
+        tasks.add(CompletableFuture.completedFuture(known));
+        toChunks(100, unknownArns).stream()
                 .filter(l -> !l.isEmpty())
-                .flatMap(
-                        chunkedarns -> {
-                            DescribeTasksRequest describeTaskRequest = new DescribeTasksRequest();
-                            describeTaskRequest.setTasks(chunkedarns);
-                            describeTaskRequest.setCluster(clusterName);
-                            DescribeTasksResult tasks = client.describeTasks(describeTaskRequest);
-                            return tasks.getTasks().stream();
-                        })
-                .collect(Collectors.toList());
+                .map(
+                        chunkedarns ->
+                                CompletableFuture.supplyAsync(
+                                        () -> describeTasks(client, clusterName, chunkedarns),
+                                        executor()))
+                .forEach(tasks::add);
+        return merge(tasks);
+    }
+
+    private List<Task> describeTasks(
+            EcsTransport client, String clusterName, List<String> taskArns) {
+        DescribeTasksRequest describeTaskRequest = new DescribeTasksRequest();
+        describeTaskRequest.setTasks(taskArns);
+        describeTaskRequest.setCluster(clusterName);
+        if (!config.getTaskTags().isEmpty()) {
+            describeTaskRequest.withInclude(TaskField.TAGS);
+        }
+        metrics.chunk();
+        return remember(
+                call(
+                                "DescribeTasks",
+                                clusterName,
+                                0,
+                                () -> client.describeTasks(describeTaskRequest),
+                                result -> result.getTasks().size())
+                        .getTasks());
+    }
+
+    /** keeps available tasks for the next rounds, the other ones are described again */
+    private List<Task> remember(List<Task> described) {
+        if (config.isIncrementalDiscovery()) {
+            for (Task task : described) {
+                if (isAvailable(task)) {
+                    knownTasks.put(task.getTaskArn(), task);
+                }
+            }
+        }
+        return described;
+    }
+
+    /**
+     * Describes the task definitions which are not known yet. A task definition revision never
+     * changes, so it is kept as long as discovered tasks use it.
+     */
+    private void describeTaskDefinitions(EcsTransport client, List<Task> tasks) {
+        Set<String> taskDefinitionArns = new HashSet<>();
+        for (Task task : tasks) {
+            if (task.getTaskDefinitionArn() != null) {
+                taskDefinitionArns.add(task.getTaskDefinitionArn());
+            }
+        }
+        taskDefinitions.keySet().retainAll(taskDefinitionArns);
+        List<CompletableFuture<Void>> described = new ArrayList<>();
+        for (String taskDefinitionArn : taskDefinitionArns) {
+            if (!taskDefinitions.containsKey(taskDefinitionArn)) {
+                described.add(
+                        CompletableFuture.runAsync(
+                                () ->
+                                        taskDefinitions.put(
+                                                taskDefinitionArn,
+                                                describeTaskDefinition(client, taskDefinitionArn)),
+                                executor()));
+            }
+        }
+        join(CompletableFuture.allOf(described.toArray(new CompletableFuture[0])));
+    }
+
+    /**
+     * Resolves the private IP of the EC2 hosts of the tasks in the bridge and host network modes.
+     * A replaced host registers a new container instance, so the IP of a container instance is
+     * kept as long as discovered tasks run on it and only new hosts cost API calls.
+     */
+    private void resolveHosts(EcsTransport client, List<Task> tasks) {
+        Set<String> containerInstanceArns = new HashSet<>();
+        Map<String, Set<String>> unresolved = new HashMap<>();
+        for (Task task : tasks) {
+            String containerInstanceArn = task.getContainerInstanceArn();
+            if (containerInstanceArn == null
+                    || task.getContainers() == null
+                    || task.getContainers().stream()
+                            .allMatch(AwsEcsDiscoveryStrategy::hasNetworkInterfaces)) {
+                continue;
+            }
+            containerInstanceArns.add(containerInstanceArn);
+            if (!hostIps.containsKey(containerInstanceArn)) {
+                unresolved
+                        .computeIfAbsent(task.getClusterArn(), cluster -> new LinkedHashSet<>())
+                        .add(containerInstanceArn);
+            }
+        }
+        hostIps.keySet().retainAll(containerInstanceArns);
+        if (!unresolved.isEmpty() && ec2Hosts == null && !EC2_SDK) {
+            if (!ec2Missing) {
+                ec2Missing = true;
+                getLogger()
+                        .warning(
+                                "Ignoring the tasks in the bridge and host network modes, resolving"
+                                        + " their hosts requires com.amazonaws:aws-java-sdk-ec2 on"
+                                        + " the classpath");
+            }
+            return;
+        }
+        List<CompletableFuture<Void>> resolved = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> cluster : unresolved.entrySet()) {
+            for (List<String> chunk : toChunks(100, new ArrayList<>(cluster.getValue()))) {
+                resolved.add(
+                        CompletableFuture.runAsync(
+                                () -> resolveHosts(client, cluster.getKey(), chunk),
+                                executor()));
+            }
+        }
+        join(CompletableFuture.allOf(resolved.toArray(new CompletableFuture[0])));
+    }
+
+    private void resolveHosts(
+            EcsTransport client, String clusterArn, List<String> containerInstanceArns) {
+        DescribeContainerInstancesRequest request =
+                new DescribeContainerInstancesRequest()
+                        .withCluster(clusterArn)
+                        .withContainerInstances(containerInstanceArns);
+        Map<String, String> containerInstances = new HashMap<>();
+        for (ContainerInstance containerInstance :
+                call(
+                                "DescribeContainerInstances",
+                                clusterArn,
+                                0,
+                                () -> client.describeContainerInstances(request),
+                                result -> result.getContainerInstances().size())
+                        .getContainerInstances()) {
+            if (containerInstance.getEc2InstanceId() != null) {
+                containerInstances.put(
+                        containerInstance.getEc2InstanceId(),
+                        containerInstance.getContainerInstanceArn());
+            }
+        }
+        if (containerInstances.isEmpty()) {
+            return;
+        }
+        Ec2Hosts ec2Hosts = ec2Hosts();
+        for (Map.Entry<String, InetAddress> ip :
+                call(
+                                "DescribeInstances",
+                                clusterArn,
+                                0,
+                                () -> ec2Hosts.privateIps(containerInstances.keySet()),
+                                Map::size)
+                        .entrySet()) {
+            String containerInstanceArn = containerInstances.get(ip.getKey());
+            if (containerInstanceArn != null) {
+                hostIps.put(containerInstanceArn, ip.getValue());
+            }
+        }
     }
 
-    private static List<Task> tasksForClusterAndService(
-            AmazonECS client, String clusterName, String serviceName) {
+    private TaskDefinition describeTaskDefinition(EcsTransport client, String taskDefinitionArn) {
+        DescribeTaskDefinitionRequest request =
+                new DescribeTaskDefinitionRequest().withTaskDefinition(taskDefinitionArn);
+        return call(
+                        "DescribeTaskDefinition",
+                        null,
+                        0,
+                        () -> client.describeTaskDefinition(request),
+                        result -> 1)
+                .getTaskDefinition();
+    }
+
+    private CompletableFuture<List<Task>> tasksForClusterAndService(
+            EcsTransport client, String clusterName, String serviceName) {
+        return CompletableFuture.supplyAsync(
+                        () ->
+                                pages(
+                                                (token, page) ->
+                                                        listTasks(
+                                                                client,
+                                                                clusterName,
+                                                                serviceName,
+                                                                token,
+                                                                page),
+                                                ListTasksResult::getNextToken)
+                                        // each page is described as soon as it arrives
+                                        .map(
+                                                taskIds ->
+                                                        tasksForClusterAndTaskArns(
+                                                                client,
+                                                                clusterName,
+                                                                taskIds.getTaskArns()))
+                                        .collect(Collectors.toList()),
+                        executor())
+                .thenCompose(AwsEcsDiscoveryStrategy::merge);
+    }
+
+    private ListTasksResult listTasks(
+            EcsTransport client,
+            String clusterName,
+            String serviceName,
+            String nextToken,
+            int page) {
         ListTasksRequest listTaskRequest = new ListTasksRequest();
         listTaskRequest.setCluster(clusterName);
         listTaskRequest.setServiceName(serviceName);
         listTaskRequest.setDesiredStatus(DesiredStatus.RUNNING);
-        ListTasksResult taskIds = client.listTasks(listTaskRequest);
-        return tasksForClusterAndTaskArns(client, clusterName, taskIds.getTaskArns());
+        // the only other filter ECS accepts with the service name, startedBy has to be alone
+        listTaskRequest.setFamily(config.getTaskFamily());
+        listTaskRequest.setNextToken(nextToken);
+        metrics.page();
+        return call(
+                "ListTasks",
+                clusterName,
+                page,
+                () -> client.listTasks(listTaskRequest),
+                result -> result.getTaskArns().size());
+    }
+
+    private CompletableFuture<List<Task>> tasksForClusterAndServicePattern(
+            EcsTransport client, Pattern clusterNamePattern, Pattern serviceNamePattern) {
+        return servicesForPattern(client, clusterNamePattern, serviceNamePattern)
+                .thenCompose(services -> tasksForServices(client, services));
+    }
+
+    private CompletableFuture<List<Task>> tasksForServices(
+            EcsTransport client, List<Pair<String, String>> services) {
+        List<CompletableFuture<List<Task>>> tasks = new ArrayList<>();
+        for (Pair<String, String> serviceIds : services) {
+            tasks.add(
+                    tasksForClusterAndService(client, serviceIds.l, serviceIds.r)
+                            .handle(this::invalidateServicesIfGone));
+        }
+        return merge(tasks);
+    }
+
+    /**
+     * A deleted service is resolved again next time, it has no tasks meanwhile. ECS reports it as
+     * not found, or lists no tasks at all. An empty listing filtered by task-family says nothing
+     * about the service.
+     */
+    private List<Task> invalidateServicesIfGone(List<Task> tasks, Throwable failure) {
+        if (failure == null) {
+            if (tasks.isEmpty() && config.getTaskFamily() == null) {
+                resolvedServices = null;
+            }
+            return tasks;
+        }
+        Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+        if (cause instanceof AmazonServiceException
+                && NOT_FOUND_ERRORS.contains(((AmazonServiceException) cause).getErrorCode())) {
+            resolvedServices = null;
+            return Collections.emptyList();
+        }
+        throw failure instanceof CompletionException
+                ? (CompletionException) failure
+                : new CompletionException(failure);
     }
 
-    private static List<Task> tasksForClusterAndServicePattern(
-            AmazonECS client, Pattern clusterNamePattern, Pattern serviceNamePattern) {
-        return client.listClusters().getClusterArns().stream()
-                .filter(clusterArn -> clusterNamePattern.matcher(clusterArn).matches())
-                .flatMap(
-                        clusterArn -> {
+    /**
+     * Resolves the (cluster arn, service arn) pairs matching the patterns. They rarely change, so
+     * they are kept for service-cache-ttl when configured.
+     */
+    private CompletableFuture<List<Pair<String, String>>> servicesForPattern(
+            EcsTransport client, Pattern clusterNamePattern, Pattern serviceNamePattern) {
+        Cached<List<Pair<String, String>>> cached = resolvedServices;
+        if (cached != null && !cached.isExpired()) {
+            return CompletableFuture.completedFuture(cached.value);
+        }
+        return CompletableFuture.supplyAsync(
+                        () ->
+                                clusterArns(client)
+                                        .filter(
+                                                clusterArn ->
+                                                        clusterNamePattern
+                                                                .matcher(clusterArn)
+                                                                .matches())
+                                        .map(
+                                                clusterArn ->
+                                                        servicesForPattern(
+                                                                client,
+                                                                clusterArn,
+                                                                serviceNamePattern))
+                                        .collect(Collectors.toList()),
+                        executor())
+                .thenCompose(AwsEcsDiscoveryStrategy::merge)
+                .thenApply(
+                        services -> {
+                            if (events != null) {
+                                watchedGroups = watchedGroups(services);
+                            }
+                            long ttl = config.getServiceCacheTtlMillis();
+                            if (ttl > 0) {
+                                resolvedServices = new Cached<>(services, ttl);
+                            }
+                            return services;
+                        });
+    }
+
+    private static Set<String> watchedGroups(List<Pair<String, String>> services) {
+        Set<String> groups = new HashSet<>();
+        for (Pair<String, String> service : services) {
+            groups.add(service.l + " service:" + lastSegment(service.r));
+        }
+        return groups;
+    }
+
+    private CompletableFuture<List<Pair<String, String>>> servicesForPattern(
+            EcsTransport client, String clusterArn, Pattern serviceNamePattern) {
+        return CompletableFuture.supplyAsync(
+                () ->
+                        serviceArns(client, clusterArn)
+                                .filter(
+                                        serviceArn ->
+                                                serviceNamePattern.matcher(serviceArn).matches())
+                                .map(serviceArn -> new Pair<>(clusterArn, serviceArn))
+                                .collect(Collectors.toList()),
+                executor());
+    }
+
+    private Stream<String> clusterArns(EcsTransport client) {
+        return pages(
+                        (token, page) -> {
+                            metrics.page();
+                            ListClustersRequest listClustersRequest =
+                                    new ListClustersRequest().withNextToken(token);
+                            return call(
+                                    "ListClusters",
+                                    null,
+                                    page,
+                                    () -> client.listClusters(listClustersRequest),
+                                    result -> result.getClusterArns().size());
+                        },
+                        ListClustersResult::getNextToken)
+                .flatMap(clusters -> clusters.getClusterArns().stream());
+    }
+
+    private Stream<String> serviceArns(EcsTransport client, String clusterArn) {
+        return pages(
+                        (token, page) -> {
                             ListServicesRequest listServicesRequest = new ListServicesRequest();
                             listServicesRequest.setCluster(clusterArn);
-                            return client.listServices(listServicesRequest).getServiceArns()
-                                    .stream()
-                                    .filter(
-                                            serviceArn ->
-                                                    serviceNamePattern
-                                                            .matcher(serviceArn)
-                                                            .matches())
-                                    .map(serviceArn -> new Pair<>(clusterArn, serviceArn));
-                        })
-                .flatMap(
-                        serviceIds ->
-                                tasksForClusterAndService(client, serviceIds.l, serviceIds.r)
-                                        .stream())
-                .collect(Collectors.toList());
+                            listServicesRequest.setNextToken(token);
+                            metrics.page();
+                            return call(
+                                    "ListServices",
+                                    clusterArn,
+                                    page,
+                                    () -> client.listServices(listServicesRequest),
+                                    result -> result.getServiceArns().size());
+                        },
+                        ListServicesResult::getNextToken)
+                .flatMap(services -> services.getServiceArns().stream());
+    }
+
+    /** a value which is valid for a limited time */
+    static final class Cached<T> {
+        final T value;
+        private final long expiresAtNanos;
+
+        Cached(T value, long ttlMillis) {
+            this.value = value;
+            this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        }
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAtNanos >= 0;
+        }
     }
 
     static class Pair<L, R> {
@@ -18,15 +18,20 @@
 package com.ikentoo.hazelcast;
 
 import static com.hazelcast.config.properties.PropertyTypeConverter.BOOLEAN;
+import static com.hazelcast.config.properties.PropertyTypeConverter.INTEGER;
 import static com.hazelcast.config.properties.PropertyTypeConverter.STRING;
 import static java.lang.String.format;
 import static java.util.Optional.ofNullable;
 
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.hazelcast.config.properties.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -43,7 +48,50 @@ public enum AwsEcsProperties {
     access_key(true, STRING, null),
     secret_key(true, STRING, null),
     fail_fast(true, BOOLEAN, null),
-    region(true, STRING, null);
+    region(true, STRING, null),
+
+    max_connections(true, INTEGER, positive()),
+    connection_timeout_millis(true, INTEGER, positive()),
+    socket_timeout_millis(true, INTEGER, positive()),
+    parallelism(true, INTEGER, positive()),
+
+    cache_ttl(true, INTEGER, positive()),
+    refresh_interval(true, INTEGER, positive()),
+    cache_max_age(true, INTEGER, positive()),
+    service_cache_ttl(true, INTEGER, positive()),
+
+    incremental_discovery(true, BOOLEAN, null),
+    full_describe_interval(true, INTEGER, positive()),
+
+    api_rate_limit(true, INTEGER, positive()),
+    api_burst(true, INTEGER, positive()),
+    max_retries(true, INTEGER, null),
+    retry_base_delay_millis(true, INTEGER, positive()),
+    retry_max_delay_millis(true, INTEGER, positive()),
+
+    exact_ports(true, BOOLEAN, null),
+    same_zone_first(true, BOOLEAN, null),
+
+    snapshot_file(true, STRING, null),
+    snapshot_max_age(true, INTEGER, positive()),
+
+    task_statuses(true, STRING, null),
+    health_statuses(true, STRING, null),
+
+    event_queue_url(true, STRING, null),
+    reconcile_interval(true, INTEGER, positive()),
+
+    backend(true, STRING, oneOf("ecs", "cloud-map")),
+    cloud_map_namespace(true, STRING, null),
+    cloud_map_service(true, STRING, null),
+
+    shared_discovery(true, BOOLEAN, null),
+
+    probe_timeout_millis(true, INTEGER, positive()),
+
+    task_family(true, STRING, null),
+    started_by(true, STRING, null),
+    task_tags(true, STRING, null);
 
     public static final Collection<PropertyDefinition> PROPERTY_DEFINITIONS =
             Collections.unmodifiableList(
@@ -63,6 +111,41 @@ public enum AwsEcsProperties {
                 new SimplePropertyDefinition(this.key(), optional, typeConverter, validator);
     }
 
+    private static ValueValidator positive() {
+        return value -> {
+            if (toInt(value) <= 0) {
+                throw new ValidationException("value must be positive: " + value);
+            }
+        };
+    }
+
+    private static ValueValidator oneOf(String... values) {
+        return value -> {
+            if (!Arrays.asList(values).contains(String.valueOf(value).trim())) {
+                throw new ValidationException(
+                        "value must be one of " + Arrays.toString(values) + ": " + value);
+            }
+        };
+    }
+
+    private static int toInt(Comparable value) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return Integer.parseInt(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            throw new ValidationException("not a number: " + value);
+        }
+    }
+
+    private static Boolean toBoolean(Comparable value) {
+        if (value == null || value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return Boolean.valueOf(String.valueOf(value).trim());
+    }
+
     public static Config fromProps(Map<String, Comparable> props) {
         return new Config(props);
     }
@@ -92,29 +175,220 @@ public enum AwsEcsProperties {
             return IntStream.rangeClosed(lower, upper);
         }
 
+        int[] toArray() {
+            return ports().toArray();
+        }
+
         @Override
         public String toString() {
             return format("%d-%d", lower, upper);
         }
     }
 
+    /** Immutable configuration, everything is parsed and compiled once when the strategy starts. */
     public static class Config {
-        private final Map<String, Comparable> properties;
+        private final String description;
+        private final String clusterName;
+        private final String serviceName;
         private final Pattern clusterNamePattern;
         private final Pattern serviceNamePattern;
+        private final Pattern containerNamePattern;
+        private final int[] ports;
+        private final AWSCredentialsProvider awsCredentialsProvider;
+        private final String awsRegion;
+        private final String rateLimiterKey;
+        private final boolean failFast;
+        private final Integer maxConnections;
+        private final Integer connectionTimeoutMillis;
+        private final Integer socketTimeoutMillis;
+        private final int parallelism;
+        private final String eventQueueUrl;
+        private final boolean cacheEnabled;
+        private final long cacheTtlMillis;
+        private final long refreshIntervalMillis;
+        private final long cacheMaxAgeMillis;
+        private final long serviceCacheTtlMillis;
+        private final boolean incrementalDiscovery;
+        private final long fullDescribeIntervalMillis;
+        private final int apiRateLimit;
+        private final int apiBurst;
+        private final int maxRetries;
+        private final long retryBaseDelayMillis;
+        private final long retryMaxDelayMillis;
+        private final boolean exactPorts;
+        private final boolean sameZoneFirst;
+        private final Path snapshotFile;
+        private final long snapshotMaxAgeMillis;
+        private final Set<String> taskStatuses;
+        private final Set<String> healthStatuses;
+        private final boolean cloudMap;
+        private final String cloudMapNamespace;
+        private final String cloudMapService;
+        private final String sharingKey;
+        private final int probeTimeoutMillis;
+        private final String taskFamily;
+        private final String startedBy;
+        private final Map<String, String> taskTags;
 
         Config(Map<String, Comparable> properties) {
-            this.properties = properties;
-            this.clusterNamePattern = initPattern(cluster_name_regexp, getClusterName());
-            this.serviceNamePattern = initPattern(service_name_regexp, getServiceName());
+            this.description = describe(properties);
+            this.clusterName = (String) properties.get(cluster.key());
+            this.serviceName = (String) properties.get(service.key());
+            this.clusterNamePattern = initPattern(properties, cluster_name_regexp, clusterName);
+            this.serviceNamePattern = initPattern(properties, service_name_regexp, serviceName);
+
+            String containerFilter = (String) properties.get(container_name_regexp.key());
+            this.containerNamePattern =
+                    Pattern.compile(
+                            containerFilter == null || containerFilter.trim().isEmpty()
+                                    ? ".*"
+                                    : containerFilter.trim());
+
+            String portSpec = (String) properties.get(AwsEcsProperties.ports.key());
+            this.ports = portSpec == null ? new int[] {5701} : new PortRange(portSpec).toArray();
+
+            String awsKey = (String) properties.get(access_key.key());
+            String secretKey = (String) properties.get(secret_key.key());
+            this.awsCredentialsProvider =
+                    awsKey != null && secretKey != null
+                            ? new AWSStaticCredentialsProvider(
+                                    new BasicAWSCredentials(awsKey, secretKey))
+                            : null;
+            this.awsRegion = (String) properties.get(region.key());
+            this.rateLimiterKey =
+                    (awsRegion != null ? awsRegion : "default-region")
+                            + "/"
+                            + (awsKey != null ? awsKey : "default-credentials");
+
+            Boolean failFastValue = toBoolean(properties.get(fail_fast.key()));
+            this.failFast = failFastValue == null || failFastValue;
+
+            this.maxConnections = getInt(properties, max_connections).orElse(null);
+            this.connectionTimeoutMillis =
+                    getInt(properties, connection_timeout_millis).orElse(null);
+            this.socketTimeoutMillis = getInt(properties, socket_timeout_millis).orElse(null);
+            this.parallelism = getInt(properties, AwsEcsProperties.parallelism).orElse(1);
+
+            String queueUrl = (String) properties.get(event_queue_url.key());
+            this.eventQueueUrl =
+                    queueUrl == null || queueUrl.trim().isEmpty() ? null : queueUrl.trim();
+            // the event mode serves the nodes like the cache mode, reconciling them periodically
+            Optional<Integer> cacheTtl = getInt(properties, cache_ttl);
+            Optional<Integer> reconcileInterval = getInt(properties, reconcile_interval);
+            if (reconcileInterval.isPresent() && (eventQueueUrl == null || cacheTtl.isPresent())) {
+                throw new ValidationException(
+                        "reconcile-interval requires event-queue-url and replaces cache-ttl");
+            }
+            if (eventQueueUrl != null && !cacheTtl.isPresent()) {
+                cacheTtl = Optional.of(reconcileInterval.orElse(300));
+            }
+            this.cacheEnabled = cacheTtl.isPresent();
+            this.cacheTtlMillis = TimeUnit.SECONDS.toMillis(cacheTtl.orElse(0));
+            this.refreshIntervalMillis =
+                    getInt(properties, refresh_interval)
+                            .map(TimeUnit.SECONDS::toMillis)
+                            .orElse(cacheTtlMillis);
+            this.cacheMaxAgeMillis =
+                    getInt(properties, cache_max_age)
+                            .map(TimeUnit.SECONDS::toMillis)
+                            .orElse(Long.MAX_VALUE - 1);
+            this.serviceCacheTtlMillis =
+                    TimeUnit.SECONDS.toMillis(getInt(properties, service_cache_ttl).orElse(0));
+
+            this.incrementalDiscovery =
+                    Boolean.TRUE.equals(toBoolean(properties.get(incremental_discovery.key())));
+            this.fullDescribeIntervalMillis =
+                    TimeUnit.SECONDS.toMillis(
+                            getInt(properties, full_describe_interval).orElse(300));
+
+            this.apiRateLimit = getInt(properties, api_rate_limit).orElse(20);
+            this.apiBurst = getInt(properties, api_burst).orElse(apiRateLimit);
+            this.maxRetries = getInt(properties, max_retries).orElse(5);
+            this.retryBaseDelayMillis = getInt(properties, retry_base_delay_millis).orElse(100);
+            this.retryMaxDelayMillis = getInt(properties, retry_max_delay_millis).orElse(5000);
+
+            this.exactPorts = Boolean.TRUE.equals(toBoolean(properties.get(exact_ports.key())));
+            this.sameZoneFirst =
+                    Boolean.TRUE.equals(toBoolean(properties.get(same_zone_first.key())));
+
+            String snapshotPath = (String) properties.get(snapshot_file.key());
+            this.snapshotFile =
+                    snapshotPath == null || snapshotPath.trim().isEmpty()
+                            ? null
+                            : Paths.get(snapshotPath.trim());
+            this.snapshotMaxAgeMillis =
+                    TimeUnit.SECONDS.toMillis(getInt(properties, snapshot_max_age).orElse(3600));
+
+            this.taskStatuses = getSet(properties, task_statuses, "RUNNING");
+            this.healthStatuses = getSet(properties, health_statuses, "HEALTHY,UNKNOWN");
+
+            String backendName = (String) properties.get(backend.key());
+            this.cloudMap = backendName != null && "cloud-map".equals(backendName.trim());
+            if (cloudMap) {
+                requireSdk(
+                        "com.amazonaws.services.servicediscovery.AWSServiceDiscovery",
+                        "aws-java-sdk-servicediscovery",
+                        "the cloud-map backend");
+            }
+            this.cloudMapNamespace = (String) properties.get(cloud_map_namespace.key());
+            this.cloudMapService =
+                    (String) properties.getOrDefault(cloud_map_service.key(), serviceName);
+            if (cloudMap && (cloudMapNamespace == null || cloudMapService == null)) {
+                throw new ValidationException(
+                        "the cloud-map backend requires cloud-map-namespace and cloud-map-service");
+            }
+            if (cloudMap && eventQueueUrl != null) {
+                throw new ValidationException("event-queue-url requires the ecs backend");
+            }
+            if (eventQueueUrl != null) {
+                requireSdk(
+                        "com.amazonaws.services.sqs.AmazonSQS",
+                        "aws-java-sdk-sqs",
+                        "event-queue-url");
+            }
+
+            this.taskFamily = getString(properties, task_family);
+            this.startedBy = getString(properties, started_by);
+            this.taskTags = getTags(properties, task_tags);
+            if (cloudMap && (taskFamily != null || startedBy != null || !taskTags.isEmpty())) {
+                throw new ValidationException(
+                        "task-family, started-by and task-tags require the ecs backend");
+            }
+            if (eventQueueUrl != null && !taskTags.isEmpty()) {
+                // the task state change events don't carry the tags of the tasks
+                throw new ValidationException("task-tags is not supported with event-queue-url");
+            }
+
+            Boolean shared = toBoolean(properties.get(shared_discovery.key()));
+            // everything which changes the calls and their results, not how they are filtered,
+            // the event mode tracks the watched services per strategy and doesn't share
+            this.sharingKey =
+                    shared == null || !shared || eventQueueUrl != null
+                            ? null
+                            : String.join(
+                                    "|",
+                                    rateLimiterKey,
+                                    cloudMap ? "cloud-map" : "ecs",
+                                    String.valueOf(clusterName),
+                                    String.valueOf(serviceName),
+                                    clusterNamePattern.pattern(),
+                                    serviceNamePattern.pattern(),
+                                    String.valueOf(cloudMapNamespace),
+                                    String.valueOf(cloudMapService),
+                                    String.valueOf(taskFamily),
+                                    taskTags.isEmpty() ? "" : "tags",
+                                    // the incremental leader returns remembered tasks
+                                    incrementalDiscovery ? "incremental" : "full");
+
+            this.probeTimeoutMillis = getInt(properties, probe_timeout_millis).orElse(0);
         }
 
         String getClusterName() {
-            return (String) properties.get(cluster.key());
+            return clusterName;
         }
 
         String getServiceName() {
-            return (String) properties.get(service.key());
+            return serviceName;
         }
 
         Pattern getClusterNameRegexp() {
@@ -125,52 +399,53 @@ public enum AwsEcsProperties {
             return serviceNamePattern;
         }
 
-        private Pattern initPattern(AwsEcsProperties prop, String exactFallBack) {
+        private static Pattern initPattern(
+                Map<String, Comparable> properties, AwsEcsProperties prop, String exactFallBack) {
             String fallback =
                     "^" + ofNullable(exactFallBack).map(Pattern::quote).orElse(".*") + "$";
 
             return Pattern.compile((String) properties.getOrDefault(prop.key(), fallback));
         }
 
-        IntStream getPorts() {
-            String portSpec = (String) properties.get(ports.key());
-            if (portSpec == null) {
-                return IntStream.of(5701);
-            }
-            return new PortRange(portSpec).ports();
+        /** the configured ports, shared and not to be modified */
+        int[] getPorts() {
+            return ports;
+        }
+
+        /** whether the port is one of the configured ports, which form a range */
+        boolean isPort(int port) {
+            return ports.length > 0 && port >= ports[0] && port <= ports[ports.length - 1];
         }
 
         public Optional<AWSCredentialsProvider> getAwsCredentialsProvider() {
-            AWSCredentialsProvider provider = null;
-            String awsKey = (String) properties.get(access_key.key());
-            String secretKey = (String) properties.get(secret_key.key());
-            if (awsKey != null && secretKey != null) {
-                provider =
-                        new AWSStaticCredentialsProvider(
-                                new BasicAWSCredentials(awsKey, secretKey));
-            }
-            return ofNullable(provider);
+            return ofNullable(awsCredentialsProvider);
         }
 
         public Optional<String> getAwsRegion() {
-            return ofNullable((String) properties.get(region.key()));
+            return ofNullable(awsRegion);
         }
 
         public String getContainerNameFilter() {
-            String containerFilter = (String) properties.get(container_name_regexp.key());
-            if (containerFilter == null || containerFilter.trim().isEmpty()) return ".*";
-            return containerFilter.trim();
+            return containerNamePattern.pattern();
+        }
+
+        Pattern getContainerNamePattern() {
+            return containerNamePattern;
         }
 
         @Override
         public String toString() {
+            return description;
+        }
+
+        private static String describe(Map<String, Comparable> properties) {
             Map<String, Comparable> copy = new LinkedHashMap<>(properties);
             hide(copy, access_key);
             hide(copy, secret_key);
             return copy.toString();
         }
 
-        private void hide(Map<String, Comparable> props, AwsEcsProperties prop) {
+        private static void hide(Map<String, Comparable> props, AwsEcsProperties prop) {
             String secret = (String) props.get(prop.key());
             if (secret == null || secret.isEmpty()) {
                 return;
@@ -178,9 +453,253 @@ public enum AwsEcsProperties {
             props.put(prop.key(), secret.substring(0, Math.min(secret.length(), 2)) + "...");
         }
 
+        private static String getString(
+                Map<String, Comparable> properties, AwsEcsProperties prop) {
+            String value = (String) properties.get(prop.key());
+            return value == null || value.trim().isEmpty() ? null : value.trim();
+        }
+
+        /** comma separated key=value pairs, a key alone matches any value */
+        private static Map<String, String> getTags(
+                Map<String, Comparable> properties, AwsEcsProperties prop) {
+            String value = getString(properties, prop);
+            if (value == null) {
+                return Collections.emptyMap();
+            }
+            Map<String, String> tags = new LinkedHashMap<>();
+            for (String tag : value.split(",")) {
+                int separator = tag.indexOf('=');
+                if (separator < 0) {
+                    tags.put(tag.trim(), null);
+                } else {
+                    tags.put(
+                            tag.substring(0, separator).trim(),
+                            tag.substring(separator + 1).trim());
+                }
+            }
+            tags.remove("");
+            return Collections.unmodifiableMap(tags);
+        }
+
+        /** comma separated values, upper cased */
+        private static Set<String> getSet(
+                Map<String, Comparable> properties, AwsEcsProperties prop, String defaultValue) {
+            String value = (String) properties.get(prop.key());
+            if (value == null || value.trim().isEmpty()) {
+                value = defaultValue;
+            }
+            return Collections.unmodifiableSet(
+                    Arrays.stream(value.split(","))
+                            .map(s -> s.trim().toUpperCase(Locale.ROOT))
+                            .filter(s -> !s.isEmpty())
+                            .collect(Collectors.toSet()));
+        }
+
+        /** the optional SDK modules have to be added by the applications using their features */
+        private static void requireSdk(String className, String artifactId, String feature) {
+            if (!hasSdk(className)) {
+                throw new ValidationException(
+                        format(
+                                "%s requires com.amazonaws:%s on the classpath",
+                                feature, artifactId));
+            }
+        }
+
+        /** whether the optional SDK module holding the class was added by the application */
+        static boolean hasSdk(String className) {
+            try {
+                Class.forName(className, false, AwsEcsProperties.class.getClassLoader());
+                return true;
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+
+        private static Optional<Integer> getInt(
+                Map<String, Comparable> properties, AwsEcsProperties prop) {
+            return ofNullable(properties.get(prop.key())).map(AwsEcsProperties::toInt);
+        }
+
+        /**
+         * Client settings of the long lived ECS client, unset values keep the AWS SDK defaults.
+         */
+        public ClientConfiguration getClientConfiguration() {
+            ClientConfiguration clientConfiguration = new ClientConfiguration();
+            if (maxConnections != null) {
+                clientConfiguration.setMaxConnections(maxConnections);
+            }
+            if (connectionTimeoutMillis != null) {
+                clientConfiguration.setConnectionTimeout(connectionTimeoutMillis);
+            }
+            if (socketTimeoutMillis != null) {
+                clientConfiguration.setSocketTimeout(socketTimeoutMillis);
+            }
+            // retries are done by the strategy, within the shared rate limit
+            clientConfiguration.setMaxErrorRetry(0);
+            return clientConfiguration;
+        }
+
+        /** number of ECS calls run concurrently, 1 keeps them sequential on the calling thread */
+        int getParallelism() {
+            return parallelism;
+        }
+
+        /**
+         * SQS queue receiving the ECS task state change events, null when the nodes are only
+         * discovered through the ECS API
+         */
+        String getEventQueueUrl() {
+            return eventQueueUrl;
+        }
+
+        /** the cache mode serves discovered addresses from a background refreshed snapshot */
+        boolean isCacheEnabled() {
+            return cacheEnabled;
+        }
+
+        long getCacheTtlMillis() {
+            return cacheTtlMillis;
+        }
+
+        long getRefreshIntervalMillis() {
+            return refreshIntervalMillis;
+        }
+
+        /**
+         * older snapshots are refreshed while the caller waits, by default only a missing snapshot
+         * (whose age is Long.MAX_VALUE) is.
+         */
+        long getCacheMaxAgeMillis() {
+            return cacheMaxAgeMillis;
+        }
+
+        /** how long services resolved from the name patterns are kept, 0 resolves every time */
+        long getServiceCacheTtlMillis() {
+            return serviceCacheTtlMillis;
+        }
+
+        /** describe only tasks which were not seen in a previous round */
+        boolean isIncrementalDiscovery() {
+            return incrementalDiscovery;
+        }
+
+        /** how often all tasks are described again in incremental mode, 5 minutes by default */
+        long getFullDescribeIntervalMillis() {
+            return fullDescribeIntervalMillis;
+        }
+
+        /** calls of all strategies with the same key share one rate limit */
+        String getRateLimiterKey() {
+            return rateLimiterKey;
+        }
+
+        /** maximum ECS calls per second, 20 by default */
+        int getApiRateLimit() {
+            return apiRateLimit;
+        }
+
+        int getApiBurst() {
+            return apiBurst;
+        }
+
+        int getMaxRetries() {
+            return maxRetries;
+        }
+
+        long getRetryBaseDelayMillis() {
+            return retryBaseDelayMillis;
+        }
+
+        long getRetryMaxDelayMillis() {
+            return retryMaxDelayMillis;
+        }
+
+        /**
+         * only return the ports of the range which containers declare in their network bindings or
+         * task definition port mappings
+         */
+        boolean isExactPorts() {
+            return exactPorts;
+        }
+
+        /** order the nodes of the own availability zone first */
+        boolean isSameZoneFirst() {
+            return sameZoneFirst;
+        }
+
+        /** where the last discovered nodes are persisted, null when they aren't */
+        Path getSnapshotFile() {
+            return snapshotFile;
+        }
+
+        /** older persisted nodes are not used, one hour by default */
+        long getSnapshotMaxAgeMillis() {
+            return snapshotMaxAgeMillis;
+        }
+
+        /** statuses of tasks and containers whose addresses are returned, RUNNING by default */
+        Set<String> getTaskStatuses() {
+            return taskStatuses;
+        }
+
+        /**
+         * health statuses of tasks and containers whose addresses are returned, HEALTHY and
+         * UNKNOWN (no health check or not checked yet) by default
+         */
+        Set<String> getHealthStatuses() {
+            return healthStatuses;
+        }
+
+        /**
+         * whether the nodes are resolved from the instances ECS registers in AWS Cloud Map instead
+         * of listing and describing the tasks
+         */
+        boolean isCloudMap() {
+            return cloudMap;
+        }
+
+        String getCloudMapNamespace() {
+            return cloudMapNamespace;
+        }
+
+        /** the Cloud Map service of the tasks, the ECS service name by default */
+        String getCloudMapService() {
+            return cloudMapService;
+        }
+
+        /**
+         * strategies of the JVM with the same key share their in-flight rounds, null when sharing
+         * is disabled
+         */
+        String getSharingKey() {
+            return sharingKey;
+        }
+
+        /**
+         * how long discovered addresses are given to accept a connection, 0 when they aren't
+         * probed
+         */
+        int getProbeTimeoutMillis() {
+            return probeTimeoutMillis;
+        }
+
+        /** the task definition family of the listed tasks, null for all of them */
+        String getTaskFamily() {
+            return taskFamily;
+        }
+
+        /** who started the returned tasks, null for anyone */
+        String getStartedBy() {
+            return startedBy;
+        }
+
+        /** tags the returned tasks must have, a null value matches any value of the tag */
+        Map<String, String> getTaskTags() {
+            return taskTags;
+        }
+
         public boolean isFailFast() {
-            Boolean failFast = (Boolean) properties.get(fail_fast.key());
-            return failFast == null || failFast;
+            return failFast;
         }
     }
 }
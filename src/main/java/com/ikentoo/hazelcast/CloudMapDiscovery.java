@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.servicediscovery.AWSServiceDiscovery;
+import com.amazonaws.services.servicediscovery.AWSServiceDiscoveryClientBuilder;
+import com.amazonaws.services.servicediscovery.model.DiscoverInstancesRequest;
+import com.amazonaws.services.servicediscovery.model.HealthStatusFilter;
+import com.amazonaws.services.servicediscovery.model.HttpInstanceSummary;
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import com.hazelcast.spi.discovery.SimpleDiscoveryNode;
+import com.hazelcast.spi.partitiongroup.PartitionGroupMetaData;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the nodes from the instances ECS registers in AWS Cloud Map for the tasks of a service.
+ * It owns the Cloud Map client, so that aws-java-sdk-servicediscovery is only needed with the
+ * cloud-map backend.
+ */
+final class CloudMapDiscovery {
+
+    /** attributes ECS sets on the Cloud Map instances of the tasks */
+    private static final String IPV4 = "AWS_INSTANCE_IPV4";
+    private static final String PORT = "AWS_INSTANCE_PORT";
+    private static final String ZONE = "AVAILABILITY_ZONE";
+
+    private final AWSServiceDiscovery serviceDiscovery;
+    private final AwsEcsProperties.Config config;
+    private final ILogger logger;
+
+    CloudMapDiscovery(
+            AWSServiceDiscovery serviceDiscovery, AwsEcsProperties.Config config, ILogger logger) {
+        this.serviceDiscovery = serviceDiscovery;
+        this.config = config;
+        this.logger = logger;
+    }
+
+    /** builds the Cloud Map client from the properties, like the ECS client */
+    static CloudMapDiscovery create(AwsEcsProperties.Config config, ILogger logger) {
+        AWSServiceDiscoveryClientBuilder clientBuilder =
+                AWSServiceDiscoveryClientBuilder.standard()
+                        .withClientConfiguration(config.getClientConfiguration());
+        config.getAwsCredentialsProvider().ifPresent(clientBuilder::withCredentials);
+        config.getAwsRegion().ifPresent(clientBuilder::withRegion);
+        return new CloudMapDiscovery(clientBuilder.build(), config, logger);
+    }
+
+    /**
+     * The healthy instances ECS registered in Cloud Map for the tasks of the service, a single
+     * call returns up to 1000 of them.
+     */
+    List<Instance> discoverInstances() {
+        DiscoverInstancesRequest request =
+                new DiscoverInstancesRequest()
+                        .withNamespaceName(config.getCloudMapNamespace())
+                        .withServiceName(config.getCloudMapService())
+                        .withHealthStatus(HealthStatusFilter.HEALTHY)
+                        .withMaxResults(1000);
+        List<HttpInstanceSummary> summaries =
+                serviceDiscovery.discoverInstances(request).getInstances();
+        List<Instance> instances = new ArrayList<>(summaries.size());
+        for (HttpInstanceSummary summary : summaries) {
+            instances.add(
+                    new Instance(
+                            summary.getInstanceId(),
+                            summary.getAttributes() == null
+                                    ? Collections.emptyMap()
+                                    : summary.getAttributes()));
+        }
+        return instances;
+    }
+
+    /** the nodes of the instances except the own one, in the order of the instances */
+    List<DiscoveryNode> toNodes(List<Instance> instances, String ownInstanceId) {
+        List<DiscoveryNode> nodes = new ArrayList<>();
+        Set<Address> addresses = new HashSet<>();
+        for (Instance instance : instances) {
+            if (instance.id.equals(ownInstanceId)) {
+                continue;
+            }
+            InetAddress ip = AwsEcsDiscoveryStrategy.ipv4(instance.attributes.get(IPV4));
+            if (ip == null) {
+                logger.warning("Ignoring Cloud Map instance without IPv4 address " + instance.id);
+                continue;
+            }
+            int[] ports;
+            try {
+                ports = portsOf(instance.attributes);
+            } catch (NumberFormatException e) {
+                logger.warning("Ignoring Cloud Map instance with an invalid port " + instance.id, e);
+                continue;
+            }
+            Map<String, Object> properties =
+                    instance.getZone() != null
+                            ? Collections.singletonMap(
+                                    PartitionGroupMetaData.PARTITION_GROUP_ZONE,
+                                    instance.getZone())
+                            : Collections.emptyMap();
+            for (int port : ports) {
+                Address address = new Address(ip, port);
+                if (addresses.add(address)) {
+                    nodes.add(new SimpleDiscoveryNode(address, properties));
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * The configured ports, or with exact-ports only the registered port of an SRV service when
+     * it is one of them.
+     *
+     * @throws NumberFormatException when the registered port is not a number
+     */
+    private int[] portsOf(Map<String, String> attributes) {
+        String registered = attributes.get(PORT);
+        if (!config.isExactPorts() || registered == null) {
+            return config.getPorts();
+        }
+        int port = Integer.parseInt(registered.trim());
+        return Arrays.stream(config.getPorts()).filter(p -> p == port).toArray();
+    }
+
+    void shutdown() {
+        serviceDiscovery.shutdown();
+    }
+
+    /** a Cloud Map instance, ECS registers the tasks with their id as instance id */
+    static final class Instance {
+        final String id;
+        final Map<String, String> attributes;
+
+        Instance(String id, Map<String, String> attributes) {
+            this.id = id;
+            this.attributes = attributes;
+        }
+
+        String getZone() {
+            return attributes.get(ZONE);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+/**
+ * Java Flight Recorder events of the discovery, so that discovery stalls show up next to the GC
+ * and socket events of a recording. The JFR event classes are only loaded when the JVM ships
+ * JFR (Java 11, 8u262 and later), elsewhere the events are no-ops. Events which are not enabled
+ * in a recording are neither filled nor committed.
+ */
+final class DiscoveryEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    /** the duration of a discovery round, from its start to its outcome */
+    interface Round {
+        void succeeded(String backend, int discovered, int nodes, long generation);
+
+        void failed(Throwable error);
+    }
+
+    /** the duration of a single AWS API call attempt */
+    interface ApiCall {
+        /** @param items the number of items returned, -1 when the call failed */
+        void end(int items, boolean throttled);
+    }
+
+    /** the duration of the read of the own task metadata */
+    interface MetadataFetch {
+        void end(String taskArn, String availabilityZone);
+    }
+
+    private static final Round NO_ROUND =
+            new Round() {
+                @Override
+                public void succeeded(String backend, int discovered, int nodes, long generation) {}
+
+                @Override
+                public void failed(Throwable error) {}
+            };
+
+    private static final ApiCall NO_API_CALL = (items, throttled) -> {};
+
+    private static final MetadataFetch NO_METADATA_FETCH = (taskArn, availabilityZone) -> {};
+
+    private DiscoveryEvents() {}
+
+    static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, DiscoveryEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Round round() {
+        return AVAILABLE ? JfrDiscoveryEvents.round() : NO_ROUND;
+    }
+
+    /**
+     * @param cluster the cluster the call is about, null if none
+     * @param page the 1-based page of a paginated listing, 0 for other calls
+     */
+    static ApiCall apiCall(String operation, String cluster, int page) {
+        return AVAILABLE ? JfrDiscoveryEvents.apiCall(operation, cluster, page) : NO_API_CALL;
+    }
+
+    static MetadataFetch metadataFetch() {
+        return AVAILABLE ? JfrDiscoveryEvents.metadataFetch() : NO_METADATA_FETCH;
+    }
+
+    /** a failed round whose previously discovered nodes are served instead */
+    static void fallback(Throwable error, int nodes, long snapshotAgeMillis) {
+        if (AVAILABLE) {
+            JfrDiscoveryEvents.fallback(error, nodes, snapshotAgeMillis);
+        }
+    }
+}
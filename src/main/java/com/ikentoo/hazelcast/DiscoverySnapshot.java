@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable generation of discovered nodes. Every publication gets the next generation number
+ * and the nodes added and removed since the previous one, compared by private address.
+ */
+final class DiscoverySnapshot {
+
+    static final DiscoverySnapshot EMPTY =
+            new DiscoverySnapshot(
+                    0, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+    private final long generation;
+    private final List<DiscoveryNode> nodes;
+    private final List<DiscoveryNode> added;
+    private final List<DiscoveryNode> removed;
+
+    private DiscoverySnapshot(
+            long generation,
+            List<DiscoveryNode> nodes,
+            List<DiscoveryNode> added,
+            List<DiscoveryNode> removed) {
+        this.generation = generation;
+        this.nodes = nodes;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /** the generation following this one, the given nodes are not copied */
+    DiscoverySnapshot next(List<DiscoveryNode> nextNodes) {
+        List<DiscoveryNode> unmodifiable = Collections.unmodifiableList(nextNodes);
+        return new DiscoverySnapshot(
+                generation + 1,
+                unmodifiable,
+                difference(unmodifiable, nodes),
+                difference(nodes, unmodifiable));
+    }
+
+    private static List<DiscoveryNode> difference(
+            List<DiscoveryNode> nodes, List<DiscoveryNode> without) {
+        if (without.isEmpty()) {
+            return nodes;
+        }
+        Set<Address> excluded = new HashSet<>(without.size() * 2);
+        for (DiscoveryNode node : without) {
+            excluded.add(node.getPrivateAddress());
+        }
+        List<DiscoveryNode> difference = new ArrayList<>();
+        for (DiscoveryNode node : nodes) {
+            if (!excluded.contains(node.getPrivateAddress())) {
+                difference.add(node);
+            }
+        }
+        return difference.isEmpty()
+                ? Collections.emptyList()
+                : Collections.unmodifiableList(difference);
+    }
+
+    /** 0 until nodes are published */
+    long getGeneration() {
+        return generation;
+    }
+
+    /** served as is to every caller, never modified */
+    List<DiscoveryNode> getNodes() {
+        return nodes;
+    }
+
+    List<DiscoveryNode> getAdded() {
+        return added;
+    }
+
+    List<DiscoveryNode> getRemoved() {
+        return removed;
+    }
+
+    boolean isChanged() {
+        return !added.isEmpty() || !removed.isEmpty();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import com.hazelcast.spi.discovery.SimpleDiscoveryNode;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The last discovered nodes persisted on disk, so that a restarting member can join right away.
+ * The file holds a header, the time the nodes were discovered at, one line per node and a CRC32
+ * checksum of everything before it. It is replaced atomically, readers never see a partial file.
+ */
+final class DiscoverySnapshotFile {
+
+    private static final String HEADER = "hazelcast-aws-ecs-snapshot 1";
+    private static final String CHECKSUM = "crc32 ";
+
+    private final Path path;
+
+    DiscoverySnapshotFile(Path path) {
+        this.path = path;
+    }
+
+    void write(List<DiscoveryNode> nodes, long timestampMillis) throws IOException {
+        StringBuilder content = new StringBuilder();
+        content.append(HEADER).append('\n').append(timestampMillis).append('\n');
+        for (DiscoveryNode node : nodes) {
+            Address address = node.getPrivateAddress();
+            content.append(address.getHost()).append(' ').append(address.getPort());
+            for (Map.Entry<String, Object> property : node.getProperties().entrySet()) {
+                content.append(' ')
+                        .append(encode(property.getKey()))
+                        .append('=')
+                        .append(encode(String.valueOf(property.getValue())));
+            }
+            content.append('\n');
+        }
+        long checksum = checksum(content);
+        content.append(CHECKSUM).append(Long.toHexString(checksum)).append('\n');
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(content.toString().getBytes(UTF_8));
+            }
+            try {
+                Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /** the persisted snapshot, null when there is none */
+    Snapshot read() throws IOException {
+        String content;
+        try {
+            content = new String(Files.readAllBytes(path), UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        int checksumAt = content.lastIndexOf(CHECKSUM);
+        if (checksumAt < 0 || !content.startsWith(HEADER + "\n")) {
+            throw new IOException("Not a discovery snapshot: " + path);
+        }
+        String expected = content.substring(checksumAt + CHECKSUM.length()).trim();
+        String body = content.substring(0, checksumAt);
+        if (!expected.equals(Long.toHexString(checksum(body)))) {
+            throw new IOException("Checksum mismatch of the discovery snapshot " + path);
+        }
+
+        String[] lines = body.split("\n");
+        try {
+            long timestampMillis = Long.parseLong(lines[1]);
+            List<DiscoveryNode> nodes = new ArrayList<>();
+            for (int i = 2; i < lines.length; i++) {
+                String[] fields = lines[i].split(" ");
+                InetAddress ip = AwsEcsDiscoveryStrategy.ipv4(fields[0]);
+                if (ip == null) {
+                    continue;
+                }
+                Map<String, Object> properties = new HashMap<>();
+                for (int f = 2; f < fields.length; f++) {
+                    int separator = fields[f].indexOf('=');
+                    properties.put(
+                            decode(fields[f].substring(0, separator)),
+                            decode(fields[f].substring(separator + 1)));
+                }
+                nodes.add(
+                        new SimpleDiscoveryNode(
+                                new Address(ip, Integer.parseInt(fields[1])),
+                                Collections.unmodifiableMap(properties)));
+            }
+            return new Snapshot(timestampMillis, nodes);
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid discovery snapshot " + path, e);
+        }
+    }
+
+    private static long checksum(CharSequence content) {
+        CRC32 crc = new CRC32();
+        byte[] bytes = content.toString().getBytes(UTF_8);
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static final class Snapshot {
+        final long timestampMillis;
+        final List<DiscoveryNode> nodes;
+
+        Snapshot(long timestampMillis, List<DiscoveryNode> nodes) {
+            this.timestampMillis = timestampMillis;
+            this.nodes = Collections.unmodifiableList(nodes);
+        }
+    }
+}
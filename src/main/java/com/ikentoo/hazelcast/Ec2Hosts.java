@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the private IP of the EC2 hosts of the tasks in the bridge and host network modes. It
+ * owns the EC2 client, so that aws-java-sdk-ec2 is only needed with such tasks.
+ */
+final class Ec2Hosts {
+
+    /** checked before resolving hosts, this class can't be loaded without the EC2 module */
+    static final String SDK_CLASS = "com.amazonaws.services.ec2.AmazonEC2";
+
+    private final AmazonEC2 ec2;
+
+    Ec2Hosts(AmazonEC2 ec2) {
+        this.ec2 = ec2;
+    }
+
+    /** builds the EC2 client from the properties, like the ECS client */
+    static Ec2Hosts create(AwsEcsProperties.Config config) {
+        AmazonEC2ClientBuilder clientBuilder =
+                AmazonEC2ClientBuilder.standard()
+                        .withClientConfiguration(config.getClientConfiguration());
+        config.getAwsCredentialsProvider().ifPresent(clientBuilder::withCredentials);
+        config.getAwsRegion().ifPresent(clientBuilder::withRegion);
+        return new Ec2Hosts(clientBuilder.build());
+    }
+
+    /** the private IPv4 address of each of the instances which has one, by instance id */
+    Map<String, InetAddress> privateIps(Collection<String> instanceIds) {
+        DescribeInstancesRequest request =
+                new DescribeInstancesRequest().withInstanceIds(instanceIds);
+        Map<String, InetAddress> ips = new HashMap<>();
+        for (Reservation reservation : ec2.describeInstances(request).getReservations()) {
+            for (Instance instance : reservation.getInstances()) {
+                InetAddress ip = AwsEcsDiscoveryStrategy.ipv4(instance.getPrivateIpAddress());
+                if (ip != null) {
+                    ips.put(instance.getInstanceId(), ip);
+                }
+            }
+        }
+        return ips;
+    }
+
+    void shutdown() {
+        ec2.shutdown();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ecs.model.Container;
+import com.amazonaws.services.ecs.model.NetworkBinding;
+import com.amazonaws.services.ecs.model.NetworkInterface;
+import com.amazonaws.services.ecs.model.Tag;
+import com.amazonaws.services.ecs.model.Task;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the ECS JSON representation of a task, as found in the task state change events, into the
+ * SDK model. Only the fields the discovery uses are kept, the other ones are skipped without being
+ * materialized.
+ */
+final class EcsJson {
+
+    private EcsJson() {}
+
+    static Task task(JsonReader json) throws IOException {
+        Task task = new Task();
+        List<Container> containers = new ArrayList<>();
+        List<Tag> tags = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "taskArn":
+                    task.setTaskArn(json.nextStringOrNull());
+                    break;
+                case "clusterArn":
+                    task.setClusterArn(json.nextStringOrNull());
+                    break;
+                case "taskDefinitionArn":
+                    task.setTaskDefinitionArn(json.nextStringOrNull());
+                    break;
+                case "group":
+                    task.setGroup(json.nextStringOrNull());
+                    break;
+                case "startedBy":
+                    task.setStartedBy(json.nextStringOrNull());
+                    break;
+                case "lastStatus":
+                    task.setLastStatus(json.nextStringOrNull());
+                    break;
+                case "desiredStatus":
+                    task.setDesiredStatus(json.nextStringOrNull());
+                    break;
+                case "healthStatus":
+                    task.setHealthStatus(json.nextStringOrNull());
+                    break;
+                case "stopCode":
+                    task.setStopCode(json.nextStringOrNull());
+                    break;
+                case "availabilityZone":
+                    task.setAvailabilityZone(json.nextStringOrNull());
+                    break;
+                case "launchType":
+                    task.setLaunchType(json.nextStringOrNull());
+                    break;
+                case "containerInstanceArn":
+                    task.setContainerInstanceArn(json.nextStringOrNull());
+                    break;
+                case "version":
+                    task.setVersion(isNull(json) ? null : json.nextLong());
+                    break;
+                case "containers":
+                    if (!isNull(json)) {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            containers.add(container(json));
+                        }
+                        json.endArray();
+                    }
+                    break;
+                case "tags":
+                    if (!isNull(json)) {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            tags.add(tag(json));
+                        }
+                        json.endArray();
+                    }
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        task.setContainers(containers);
+        task.setTags(tags);
+        return task;
+    }
+
+    private static Container container(JsonReader json) throws IOException {
+        Container container = new Container();
+        List<NetworkInterface> networkInterfaces = new ArrayList<>();
+        List<NetworkBinding> networkBindings = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "name":
+                    container.setName(json.nextStringOrNull());
+                    break;
+                case "containerArn":
+                    container.setContainerArn(json.nextStringOrNull());
+                    break;
+                case "taskArn":
+                    container.setTaskArn(json.nextStringOrNull());
+                    break;
+                case "lastStatus":
+                    container.setLastStatus(json.nextStringOrNull());
+                    break;
+                case "healthStatus":
+                    container.setHealthStatus(json.nextStringOrNull());
+                    break;
+                case "networkInterfaces":
+                    if (!isNull(json)) {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            networkInterfaces.add(networkInterface(json));
+                        }
+                        json.endArray();
+                    }
+                    break;
+                case "networkBindings":
+                    if (!isNull(json)) {
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            networkBindings.add(networkBinding(json));
+                        }
+                        json.endArray();
+                    }
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        container.setNetworkInterfaces(networkInterfaces);
+        container.setNetworkBindings(networkBindings);
+        return container;
+    }
+
+    private static NetworkInterface networkInterface(JsonReader json) throws IOException {
+        NetworkInterface networkInterface = new NetworkInterface();
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("privateIpv4Address".equals(json.nextName())) {
+                networkInterface.setPrivateIpv4Address(json.nextStringOrNull());
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return networkInterface;
+    }
+
+    private static NetworkBinding networkBinding(JsonReader json) throws IOException {
+        NetworkBinding networkBinding = new NetworkBinding();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "bindIP":
+                    networkBinding.setBindIP(json.nextStringOrNull());
+                    break;
+                case "containerPort":
+                    networkBinding.setContainerPort(isNull(json) ? null : (int) json.nextLong());
+                    break;
+                case "hostPort":
+                    networkBinding.setHostPort(isNull(json) ? null : (int) json.nextLong());
+                    break;
+                case "protocol":
+                    networkBinding.setProtocol(json.nextStringOrNull());
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return networkBinding;
+    }
+
+    private static Tag tag(JsonReader json) throws IOException {
+        Tag tag = new Tag();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "key":
+                    tag.setKey(json.nextStringOrNull());
+                    break;
+                case "value":
+                    tag.setValue(json.nextStringOrNull());
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return tag;
+    }
+
+    /** consumes the next value if it is null */
+    static boolean isNull(JsonReader json) throws IOException {
+        if (json.peek() == JsonReader.Token.NULL) {
+            json.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by all strategies of the JVM calling the ECS API of the same account and
+ * region. The rate adapts AIMD style: it is halved whenever ECS throttles a call and slowly
+ * increases back to the configured maximum with every successful call.
+ */
+final class EcsRateLimiter {
+
+    private static final ConcurrentMap<String, EcsRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    static final double MIN_RATE = 0.5;
+    static final double ADDITIVE_INCREASE = 0.2;
+    static final double MULTIPLICATIVE_DECREASE = 0.5;
+
+    private final double maxRate;
+    private final int burst;
+
+    private double rate;
+    private double tokens;
+    private long refilledAtNanos;
+
+    EcsRateLimiter(double maxRate, int burst) {
+        this.maxRate = Math.max(maxRate, MIN_RATE);
+        this.burst = Math.max(burst, 1);
+        this.rate = this.maxRate;
+        this.tokens = this.burst;
+        this.refilledAtNanos = System.nanoTime();
+    }
+
+    /** the limiter of the given key, the first strategy asking for it defines its settings */
+    static EcsRateLimiter shared(String key, double maxRate, int burst) {
+        return LIMITERS.computeIfAbsent(key, k -> new EcsRateLimiter(maxRate, burst));
+    }
+
+    /** blocks until the next call is allowed */
+    void acquire() throws InterruptedException {
+        long waitNanos = reserve(System.nanoTime());
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /** takes a token, going into debt if none is left, and returns how long to wait for it */
+    synchronized long reserve(long nowNanos) {
+        refill(nowNanos);
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + ADDITIVE_INCREASE);
+    }
+
+    synchronized void onThrottled() {
+        rate = Math.max(MIN_RATE, rate * MULTIPLICATIVE_DECREASE);
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - refilledAtNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(burst, tokens + rate * elapsed / TimeUnit.SECONDS.toNanos(1));
+            refilledAtNanos = nowNanos;
+        }
+    }
+
+    /**
+     * Decorrelated jitter: the next delay is random between the base delay and three times the
+     * previous one, capped to the maximum delay.
+     */
+    static long nextBackoffMillis(
+            long previousMillis, long baseMillis, long maxMillis, double random) {
+        long upper = Math.max(baseMillis, previousMillis * 3);
+        return Math.min(maxMillis, baseMillis + (long) (random * (upper - baseMillis)));
+    }
+}
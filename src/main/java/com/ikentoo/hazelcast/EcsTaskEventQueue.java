@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.lang.String.format;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.AmazonSQSClientBuilder;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.hazelcast.logging.ILogger;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Long-polls an SQS queue receiving the EventBridge "ECS Task State Change" events and keeps the
+ * latest state of the watched tasks between two reconciliations with the ECS API. It owns the
+ * SQS client, so that aws-java-sdk-sqs is only needed in the event mode.
+ */
+final class EcsTaskEventQueue {
+
+    static final String DETAIL_TYPE = "ECS Task State Change";
+
+    private static final int WAIT_TIME_SECONDS = 20;
+    private static final int MAX_MESSAGES = 10;
+    /** the socket timeout has to outlast the long polling wait */
+    static final int MIN_SOCKET_TIMEOUT_MILLIS = (WAIT_TIME_SECONDS + 10) * 1000;
+
+    private final AmazonSQS sqs;
+    private final String queueUrl;
+    private final long retryBaseDelayMillis;
+    private final long retryMaxDelayMillis;
+    private final ILogger logger;
+    private volatile Predicate<Task> watched;
+    private volatile Runnable onChange;
+
+    /** guarded by this */
+    private final Map<String, Tracked> tasks = new HashMap<>();
+
+    private volatile Thread poller;
+
+    EcsTaskEventQueue(AmazonSQS sqs, AwsEcsProperties.Config config, ILogger logger) {
+        this.sqs = sqs;
+        this.queueUrl = config.getEventQueueUrl();
+        this.retryBaseDelayMillis = config.getRetryBaseDelayMillis();
+        this.retryMaxDelayMillis = config.getRetryMaxDelayMillis();
+        this.logger = logger;
+    }
+
+    /** builds the SQS client from the properties, like the ECS client but with its own settings */
+    static EcsTaskEventQueue create(AwsEcsProperties.Config config, ILogger logger) {
+        AmazonSQSClientBuilder clientBuilder =
+                AmazonSQSClientBuilder.standard()
+                        .withClientConfiguration(clientConfiguration(config));
+        config.getAwsCredentialsProvider().ifPresent(clientBuilder::withCredentials);
+        config.getAwsRegion().ifPresent(clientBuilder::withRegion);
+        return new EcsTaskEventQueue(clientBuilder.build(), config, logger);
+    }
+
+    /**
+     * The ECS client leaves the retries to the strategy and may have a socket timeout shorter than
+     * the long polling wait, the SQS client retries on its own and waits out the polls.
+     */
+    static ClientConfiguration clientConfiguration(AwsEcsProperties.Config config) {
+        ClientConfiguration clientConfiguration = config.getClientConfiguration();
+        clientConfiguration.setMaxErrorRetry(PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY);
+        clientConfiguration.setSocketTimeout(
+                Math.max(clientConfiguration.getSocketTimeout(), MIN_SOCKET_TIMEOUT_MILLIS));
+        return clientConfiguration;
+    }
+
+    /**
+     * @param watched whether an event concerns a task of the discovered services
+     * @param onChange called by the polling thread after events changed the tasks
+     */
+    synchronized void start(Predicate<Task> watched, Runnable onChange) {
+        if (poller != null) {
+            return;
+        }
+        this.watched = watched;
+        this.onChange = onChange;
+        poller = new Thread(this::pollUntilStopped, "hz-aws-ecs-discovery-events");
+        poller.setDaemon(true);
+        poller.start();
+    }
+
+    /** stops polling and shuts the SQS client down */
+    synchronized void stop() {
+        if (poller != null) {
+            poller.interrupt();
+            poller = null;
+        }
+        sqs.shutdown();
+    }
+
+    private void pollUntilStopped() {
+        Thread current = Thread.currentThread();
+        long backoffMillis = 0;
+        while (poller == current && !current.isInterrupted()) {
+            try {
+                poll();
+                backoffMillis = 0;
+            } catch (RuntimeException e) {
+                if (poller != current) {
+                    return;
+                }
+                // the SQS client retried already, backs off like the ECS calls
+                backoffMillis =
+                        EcsRateLimiter.nextBackoffMillis(
+                                backoffMillis,
+                                retryBaseDelayMillis,
+                                retryMaxDelayMillis,
+                                ThreadLocalRandom.current().nextDouble());
+                logger.warning(
+                        format(
+                                "Couldn't receive ECS task events from %s, retrying in %d ms",
+                                queueUrl, backoffMillis),
+                        e);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** receives and applies one batch of events, returns the number of received messages */
+    int poll() {
+        List<Message> messages =
+                sqs.receiveMessage(
+                                new ReceiveMessageRequest(queueUrl)
+                                        .withWaitTimeSeconds(WAIT_TIME_SECONDS)
+                                        .withMaxNumberOfMessages(MAX_MESSAGES))
+                        .getMessages();
+        if (messages == null || messages.isEmpty()) {
+            return 0;
+        }
+        boolean changed = false;
+        List<DeleteMessageBatchRequestEntry> processed = new ArrayList<>();
+        for (Message message : messages) {
+            try {
+                Task task = parse(new StringReader(message.getBody()));
+                if (task != null && apply(task)) {
+                    changed = true;
+                }
+            } catch (IOException e) {
+                logger.warning("Ignoring the malformed event " + message.getMessageId(), e);
+            }
+            processed.add(
+                    new DeleteMessageBatchRequestEntry(
+                            String.valueOf(processed.size()), message.getReceiptHandle()));
+        }
+        sqs.deleteMessageBatch(
+                new DeleteMessageBatchRequest().withQueueUrl(queueUrl).withEntries(processed));
+        if (changed) {
+            onChange.run();
+        }
+        return messages.size();
+    }
+
+    /** keeps the state of a watched task unless a more recent one is known already */
+    synchronized boolean apply(Task task) {
+        if (task.getTaskArn() == null || !watched.test(task)) {
+            return false;
+        }
+        Tracked current = tasks.get(task.getTaskArn());
+        if (current != null && isOlder(task, current.task)) {
+            return false;
+        }
+        // stopped tasks are kept until the next reconciliation so that older events are ignored
+        tasks.put(task.getTaskArn(), new Tracked(task, System.nanoTime()));
+        return true;
+    }
+
+    /**
+     * Replaces the tracked tasks by the described ones. Newer states received as events are kept,
+     * as well as the tasks only known from events received since the reconciliation started.
+     */
+    synchronized List<Task> reconcile(List<Task> described, long startedNanos) {
+        Map<String, Tracked> reconciled = new HashMap<>();
+        for (Task task : described) {
+            Tracked event = tasks.get(task.getTaskArn());
+            reconciled.put(
+                    task.getTaskArn(),
+                    event != null && isOlder(task, event.task)
+                            ? event
+                            : new Tracked(task, startedNanos));
+        }
+        for (Map.Entry<String, Tracked> entry : tasks.entrySet()) {
+            if (entry.getValue().receivedNanos - startedNanos > 0) {
+                reconciled.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        tasks.clear();
+        tasks.putAll(reconciled);
+        return tasks();
+    }
+
+    synchronized List<Task> tasks() {
+        List<Task> current = new ArrayList<>(tasks.size());
+        for (Tracked tracked : tasks.values()) {
+            current.add(tracked.task);
+        }
+        return current;
+    }
+
+    /** every state change of a task increments its version */
+    private static boolean isOlder(Task task, Task than) {
+        return task.getVersion() != null
+                && than.getVersion() != null
+                && task.getVersion() < than.getVersion();
+    }
+
+    /** the task of an ECS task state change event, null for other events */
+    static Task parse(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        String detailType = null;
+        Task task = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "detail-type":
+                    detailType = json.nextStringOrNull();
+                    break;
+                case "detail":
+                    task = EcsJson.isNull(json) ? null : EcsJson.task(json);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return DETAIL_TYPE.equals(detailType) ? task : null;
+    }
+
+    private static final class Tracked {
+        final Task task;
+        final long receivedNanos;
+
+        Tracked(Task task, long receivedNanos) {
+            this.task = task;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+}
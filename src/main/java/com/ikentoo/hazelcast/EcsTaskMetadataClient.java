@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.hazelcast.logging.ILogger;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the metadata of the own task from the ECS agent: the task metadata endpoint version 4 or
+ * 3, or the container metadata file. Every attempt is bounded by connect and read timeouts and
+ * failed attempts are retried a few times.
+ */
+final class EcsTaskMetadataClient {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 2000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 250;
+
+    private final ILogger logger;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+
+    EcsTaskMetadataClient(ILogger logger) {
+        this(logger, CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, MAX_ATTEMPTS, RETRY_DELAY_MILLIS);
+    }
+
+    EcsTaskMetadataClient(
+            ILogger logger,
+            int connectTimeoutMillis,
+            int readTimeoutMillis,
+            int maxAttempts,
+            long retryDelayMillis) {
+        this.logger = logger;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /** fetches the metadata on a daemon thread of its own, the future never fails */
+    CompletableFuture<TaskMetadata> fetchAsync() {
+        return CompletableFuture.supplyAsync(
+                this::fetch,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "hz-aws-ecs-task-metadata");
+                    thread.setDaemon(true);
+                    thread.start();
+                });
+    }
+
+    /** the metadata of the own task, null when not running in ECS or when it couldn't be read */
+    TaskMetadata fetch() {
+        DiscoveryEvents.MetadataFetch event = DiscoveryEvents.metadataFetch();
+        TaskMetadata metadata = fetchWithRetries();
+        event.end(
+                metadata == null ? null : metadata.getTaskArn(),
+                metadata == null ? null : metadata.getAvailabilityZone());
+        return metadata;
+    }
+
+    private TaskMetadata fetchWithRetries() {
+        URI uri = taskMetadataUri();
+        if (uri == null) {
+            logger.fine("No ECS task metadata available");
+            return null;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                TaskMetadata metadata = read(uri);
+                // the metadata file is written in steps, the task arn is missing until it is ready
+                if (metadata.getTaskArn() != null) {
+                    logger.fine("TaskARN=" + metadata.getTaskArn());
+                    return metadata;
+                }
+                if (attempt >= maxAttempts) {
+                    logger.warning("couldn't get taskARN from the task metadata at " + uri);
+                    return metadata;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    logger.warning("couldn't read the task metadata at " + uri, e);
+                    return null;
+                }
+                logger.fine("couldn't read the task metadata at " + uri + ": " + e.getMessage());
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(retryDelayMillis * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private TaskMetadata read(URI uri) throws IOException {
+        URLConnection connection = uri.toURL().openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        try (Reader reader = new InputStreamReader(connection.getInputStream(), UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    static URI taskMetadataUri() {
+        String uri = System.getenv("ECS_CONTAINER_METADATA_URI_V4");
+        if (uri == null || uri.isEmpty()) {
+            uri = System.getenv("ECS_CONTAINER_METADATA_URI");
+        }
+        if (uri != null && !uri.isEmpty()) {
+            return URI.create(uri + "/task");
+        }
+        uri = System.getenv("ECS_CONTAINER_METADATA_FILE");
+        if (uri != null && !uri.isEmpty()) {
+            if (!uri.startsWith("file:")) {
+                uri = "file://" + uri;
+            }
+            return URI.create(uri);
+        }
+        return null;
+    }
+
+    /**
+     * Extracts the values of interest from a task metadata document (version 3 and 4) or a
+     * container metadata file, skipping over everything else.
+     */
+    static TaskMetadata parse(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        String taskArn = null;
+        String cluster = null;
+        String availabilityZone = null;
+        List<String> ips = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "TaskARN":
+                    taskArn = json.nextStringOrNull();
+                    break;
+                case "Cluster":
+                    cluster = json.nextStringOrNull();
+                    break;
+                case "AvailabilityZone":
+                    availabilityZone = json.nextStringOrNull();
+                    break;
+                case "Containers":
+                    containers(json, ips);
+                    break;
+                case "Networks":
+                    // the container metadata file describes a single container
+                    networks(json, ips);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return new TaskMetadata(taskArn, cluster, availabilityZone, ips);
+    }
+
+    private static void containers(JsonReader json, List<String> ips) throws IOException {
+        if (json.peek() == JsonReader.Token.NULL) {
+            json.nextNull();
+            return;
+        }
+        json.beginArray();
+        while (json.hasNext()) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("Networks".equals(json.nextName())) {
+                    networks(json, ips);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    private static void networks(JsonReader json, List<String> ips) throws IOException {
+        if (json.peek() == JsonReader.Token.NULL) {
+            json.nextNull();
+            return;
+        }
+        json.beginArray();
+        while (json.hasNext()) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if ("IPv4Addresses".equals(json.nextName())
+                        && json.peek() == JsonReader.Token.BEGIN_ARRAY) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        String ip = json.nextStringOrNull();
+                        if (ip != null && !ips.contains(ip)) {
+                            ips.add(ip);
+                        }
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        json.endArray();
+    }
+
+    /** what the strategy needs to know about its own task */
+    static final class TaskMetadata {
+        static final TaskMetadata UNKNOWN =
+                new TaskMetadata(null, null, null, Collections.emptyList());
+
+        private final String taskArn;
+        private final String cluster;
+        private final String availabilityZone;
+        private final List<String> ips;
+
+        TaskMetadata(String taskArn, String cluster, String availabilityZone, List<String> ips) {
+            this.taskArn = taskArn;
+            this.cluster = cluster;
+            this.availabilityZone = availabilityZone;
+            this.ips = Collections.unmodifiableList(ips);
+        }
+
+        String getTaskArn() {
+            return taskArn;
+        }
+
+        String getCluster() {
+            return cluster;
+        }
+
+        /** only provided by the task metadata version 3 and later */
+        String getAvailabilityZone() {
+            return availabilityZone;
+        }
+
+        /** the private IPv4 addresses of the containers of the task */
+        List<String> getIps() {
+            return ips;
+        }
+
+        @Override
+        public String toString() {
+            return "TaskMetadata{taskArn="
+                    + taskArn
+                    + ", cluster="
+                    + cluster
+                    + ", availabilityZone="
+                    + availabilityZone
+                    + ", ips="
+                    + ips
+                    + '}';
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ecs.model.DescribeContainerInstancesRequest;
+import com.amazonaws.services.ecs.model.DescribeContainerInstancesResult;
+import com.amazonaws.services.ecs.model.DescribeTaskDefinitionRequest;
+import com.amazonaws.services.ecs.model.DescribeTaskDefinitionResult;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.ListClustersRequest;
+import com.amazonaws.services.ecs.model.ListClustersResult;
+import com.amazonaws.services.ecs.model.ListServicesRequest;
+import com.amazonaws.services.ecs.model.ListServicesResult;
+import com.amazonaws.services.ecs.model.ListTasksRequest;
+import com.amazonaws.services.ecs.model.ListTasksResult;
+
+/**
+ * The read-only ECS operations of the discovery. Failures are reported like the SDK does, as
+ * {@link com.amazonaws.AmazonServiceException} for error responses and
+ * {@link com.amazonaws.SdkClientException} when no response was received, so that they are
+ * retried alike whatever the transport.
+ */
+interface EcsTransport {
+
+    ListClustersResult listClusters(ListClustersRequest request);
+
+    ListServicesResult listServices(ListServicesRequest request);
+
+    ListTasksResult listTasks(ListTasksRequest request);
+
+    DescribeTasksResult describeTasks(DescribeTasksRequest request);
+
+    DescribeTaskDefinitionResult describeTaskDefinition(DescribeTaskDefinitionRequest request);
+
+    DescribeContainerInstancesResult describeContainerInstances(
+            DescribeContainerInstancesRequest request);
+
+    void shutdown();
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The JFR events behind {@link DiscoveryEvents}, never loaded when the JVM doesn't ship JFR. The
+ * fields are only filled once the event passed the thresholds of the recording.
+ */
+final class JfrDiscoveryEvents {
+
+    private static final String CATEGORY = "AWS ECS Discovery";
+
+    private JfrDiscoveryEvents() {}
+
+    static DiscoveryEvents.Round round() {
+        RoundEvent event = new RoundEvent();
+        event.begin();
+        return event;
+    }
+
+    static DiscoveryEvents.ApiCall apiCall(String operation, String cluster, int page) {
+        ApiCallEvent event = new ApiCallEvent();
+        if (event.isEnabled()) {
+            event.operation = operation;
+            event.cluster = cluster;
+            event.page = page;
+            event.begin();
+        }
+        return event;
+    }
+
+    static DiscoveryEvents.MetadataFetch metadataFetch() {
+        MetadataFetchEvent event = new MetadataFetchEvent();
+        event.begin();
+        return event;
+    }
+
+    static void fallback(Throwable error, int nodes, long snapshotAgeMillis) {
+        FallbackEvent event = new FallbackEvent();
+        if (event.shouldCommit()) {
+            event.error = String.valueOf(error);
+            event.nodes = nodes;
+            event.snapshotAge = snapshotAgeMillis;
+            event.commit();
+        }
+    }
+
+    @Name("com.ikentoo.hazelcast.DiscoveryRound")
+    @Label("Discovery Round")
+    @Category({"Hazelcast", CATEGORY})
+    @Description("A round listing and describing the tasks of the discovered services")
+    @StackTrace(false)
+    static final class RoundEvent extends Event implements DiscoveryEvents.Round {
+        @Label("Backend")
+        String backend;
+
+        @Label("Discovered")
+        @Description("Tasks or instances returned by AWS, before filtering")
+        int discovered;
+
+        @Label("Nodes")
+        int nodes;
+
+        @Label("Generation")
+        long generation;
+
+        @Label("Error")
+        String error;
+
+        @Override
+        public void succeeded(String backend, int discovered, int nodes, long generation) {
+            end();
+            if (shouldCommit()) {
+                this.backend = backend;
+                this.discovered = discovered;
+                this.nodes = nodes;
+                this.generation = generation;
+                commit();
+            }
+        }
+
+        @Override
+        public void failed(Throwable error) {
+            end();
+            if (shouldCommit()) {
+                this.error = String.valueOf(error);
+                commit();
+            }
+        }
+    }
+
+    @Name("com.ikentoo.hazelcast.ApiCall")
+    @Label("AWS API Call")
+    @Category({"Hazelcast", CATEGORY})
+    @Description("A single attempt of an AWS API call, retries are separate events")
+    @StackTrace(false)
+    static final class ApiCallEvent extends Event implements DiscoveryEvents.ApiCall {
+        @Label("Operation")
+        String operation;
+
+        @Label("Cluster")
+        String cluster;
+
+        @Label("Page")
+        @Description("The 1-based page of a paginated listing, 0 for other calls")
+        int page;
+
+        @Label("Items")
+        @Description("The number of items returned, -1 when the call failed")
+        int items;
+
+        @Label("Throttled")
+        boolean throttled;
+
+        @Override
+        public void end(int items, boolean throttled) {
+            end();
+            if (shouldCommit()) {
+                this.items = items;
+                this.throttled = throttled;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.ikentoo.hazelcast.MetadataFetch")
+    @Label("ECS Task Metadata Fetch")
+    @Category({"Hazelcast", CATEGORY})
+    @Description("The read of the own task metadata from the ECS agent, retries included")
+    @StackTrace(false)
+    static final class MetadataFetchEvent extends Event implements DiscoveryEvents.MetadataFetch {
+        @Label("Task ARN")
+        String taskArn;
+
+        @Label("Availability Zone")
+        String availabilityZone;
+
+        @Override
+        public void end(String taskArn, String availabilityZone) {
+            end();
+            if (shouldCommit()) {
+                this.taskArn = taskArn;
+                this.availabilityZone = availabilityZone;
+                commit();
+            }
+        }
+    }
+
+    @Name("com.ikentoo.hazelcast.DiscoveryFallback")
+    @Label("Discovery Fallback")
+    @Category({"Hazelcast", CATEGORY})
+    @Description("A failed round, the previously discovered nodes are served instead")
+    @StackTrace(false)
+    static final class FallbackEvent extends Event {
+        @Label("Error")
+        String error;
+
+        @Label("Nodes")
+        @Description("The number of previously discovered nodes served")
+        int nodes;
+
+        @Label("Snapshot Age")
+        @Timespan(Timespan.MILLISECONDS)
+        long snapshotAge;
+    }
+}
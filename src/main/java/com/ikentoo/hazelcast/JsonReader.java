@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON pull parser. Values are read token by token from the underlying reader,
+ * so only the values asked for are turned into strings and the document is never held in memory.
+ */
+final class JsonReader implements Closeable {
+
+    enum Token {
+        BEGIN_OBJECT,
+        END_OBJECT,
+        BEGIN_ARRAY,
+        END_ARRAY,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[1024];
+    private int pos;
+    private int limit;
+    private long offset;
+
+    private int[] stack = new int[32];
+    private int depth = 1;
+
+    private final StringBuilder text = new StringBuilder();
+    private Token peeked;
+    private String peekedValue;
+
+    JsonReader(Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    /** whether the current object or array has another element */
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT
+                && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        return peekedValue;
+    }
+
+    /** the next string or number as text */
+    String nextString() throws IOException {
+        Token token = peek();
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw syntaxError("expected a string but was " + token);
+        }
+        peeked = null;
+        return peekedValue;
+    }
+
+    /** like {@link #nextString()} but also accepts null */
+    String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return "true".equals(peekedValue);
+    }
+
+    long nextLong() throws IOException {
+        String value = nextString();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long) parseDouble(value);
+        }
+    }
+
+    double nextDouble() throws IOException {
+        return parseDouble(nextString());
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    /** skips the next value, including all nested values of an object or array */
+    void skipValue() throws IOException {
+        int count = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    count++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    count++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    count--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    count--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("unexpected end of document");
+                default:
+                    peeked = null;
+            }
+        } while (count != 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private double parseDouble(String value) throws IOException {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw syntaxError("not a number: " + value);
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int context) {
+        if (depth == stack.length) {
+            stack = Arrays.copyOf(stack, depth * 2);
+        }
+        stack[depth++] = context;
+    }
+
+    private Token doPeek() throws IOException {
+        int c;
+        switch (stack[depth - 1]) {
+            case EMPTY_ARRAY:
+                stack[depth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                unread(c);
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("expected ',' or ']'");
+                }
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return Token.END_OBJECT;
+                }
+                if (stack[depth - 1] == NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("expected a name");
+                }
+                stack[depth - 1] = DANGLING_NAME;
+                peekedValue = readString();
+                return Token.NAME;
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("expected ':'");
+                }
+                stack[depth - 1] = NONEMPTY_OBJECT;
+                break;
+            case EMPTY_DOCUMENT:
+                stack[depth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespace() == -1) {
+                    return Token.END_DOCUMENT;
+                }
+                throw syntaxError("unexpected content after the document");
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                peekedValue = readString();
+                return Token.STRING;
+            case 't':
+            case 'f':
+            case 'n':
+                return readLiteral(c);
+            case -1:
+                throw syntaxError("unexpected end of document");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber(c);
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private Token readLiteral(int first) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        int c;
+        while ((c = read()) >= 'a' && c <= 'z') {
+            text.append((char) c);
+        }
+        unread(c);
+        String literal = text.toString();
+        switch (literal) {
+            case "true":
+            case "false":
+                peekedValue = literal;
+                return Token.BOOLEAN;
+            case "null":
+                peekedValue = null;
+                return Token.NULL;
+            default:
+                throw syntaxError("unexpected literal " + literal);
+        }
+    }
+
+    private Token readNumber(int first) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        int c;
+        while (isNumberPart(c = read())) {
+            text.append((char) c);
+        }
+        unread(c);
+        peekedValue = text.toString();
+        return Token.NUMBER;
+    }
+
+    private static boolean isNumberPart(int c) {
+        return (c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '-' || c == '+';
+    }
+
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c == -1) {
+                throw syntaxError("unterminated string");
+            }
+            if (c == '\\') {
+                text.append(readEscaped());
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private char readEscaped() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("invalid unicode escape");
+                    }
+                    value = value << 4 | digit;
+                }
+                return (char) value;
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw syntaxError("invalid escape sequence");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pos == limit) {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read <= 0) {
+                return -1;
+            }
+            offset += limit;
+            pos = 0;
+            limit = read;
+        }
+        return buffer[pos++];
+    }
+
+    /** pushes back the character just read, the buffer always still holds it */
+    private void unread(int c) {
+        if (c != -1) {
+            pos--;
+        }
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON at offset " + (offset + pos) + ": " + message);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.lang.String.format;
+
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects to all discovered addresses at once from a single selector and keeps those which
+ * accept the connection before the deadline, the fastest first. The connections are closed right
+ * away without sending anything, a Hazelcast member still logs them as accepted and closed.
+ */
+final class ReachabilityProbe {
+
+    private static final long UNREACHABLE = -1;
+    private static final long UNPROBED = -2;
+
+    private final long timeoutMillis;
+    private final ILogger logger;
+
+    ReachabilityProbe(long timeoutMillis, ILogger logger) {
+        this.timeoutMillis = timeoutMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * The nodes which accepted a connection, ordered by the preferred order and then by connect
+     * round trip time. Nodes which couldn't be probed locally are kept last. When no node
+     * answered, the probe is inconclusive and all nodes are returned in their order.
+     *
+     * @param preferred the order which takes precedence over the round trip time, such as the
+     *     same zone first
+     */
+    List<DiscoveryNode> probe(List<DiscoveryNode> nodes, Comparator<DiscoveryNode> preferred) {
+        if (nodes.isEmpty()) {
+            return nodes;
+        }
+        long[] rtts = new long[nodes.size()];
+        Arrays.fill(rtts, UNREACHABLE);
+        try (Selector selector = Selector.open()) {
+            long started = System.nanoTime();
+            int pending = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                if (connect(selector, nodes.get(i).getPrivateAddress(), i, started, rtts)) {
+                    pending++;
+                }
+            }
+            long deadline = started + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (pending > 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    break;
+                }
+                selector.select(remainingMillis);
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    finishConnect(key, rtts);
+                    pending--;
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                close(key.channel());
+            }
+        } catch (IOException e) {
+            logger.warning("Couldn't probe the discovered addresses", e);
+            return nodes;
+        }
+
+        List<Integer> reachable = new ArrayList<>();
+        List<DiscoveryNode> unprobed = new ArrayList<>();
+        for (int i = 0; i < rtts.length; i++) {
+            if (rtts[i] == UNPROBED) {
+                unprobed.add(nodes.get(i));
+            } else if (rtts[i] != UNREACHABLE) {
+                reachable.add(i);
+            }
+        }
+        if (reachable.isEmpty()) {
+            logger.warning(
+                    format(
+                            "None of the %d discovered addresses accepted a connection within %d"
+                                    + " ms, returning all of them",
+                            nodes.size(), timeoutMillis));
+            return nodes;
+        }
+        // the sort is stable, the given order breaks ties
+        reachable.sort(
+                Comparator.comparing((Integer i) -> nodes.get(i), preferred)
+                        .thenComparingLong(i -> rtts[i]));
+        List<DiscoveryNode> probed = new ArrayList<>(reachable.size() + unprobed.size());
+        for (int i : reachable) {
+            probed.add(nodes.get(i));
+        }
+        probed.addAll(unprobed);
+        if (probed.size() < nodes.size()) {
+            logger.fine(
+                    format(
+                            "%d of %d discovered addresses didn't accept a connection",
+                            nodes.size() - probed.size(), nodes.size()));
+        }
+        return probed;
+    }
+
+    /** starts connecting, returns whether the connection is pending */
+    private boolean connect(
+            Selector selector, Address address, int index, long started, long[] rtts) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            // out of file descriptors or alike, it says nothing about the node
+            logger.fine("Couldn't probe " + address + ": " + e.getMessage());
+            rtts[index] = UNPROBED;
+            return false;
+        }
+        try {
+            InetSocketAddress target =
+                    new InetSocketAddress(address.getInetAddress(), address.getPort());
+            if (channel.connect(target)) {
+                rtts[index] = System.nanoTime() - started;
+                close(channel);
+                return false;
+            }
+            channel.register(selector, SelectionKey.OP_CONNECT, new Attempt(index, started));
+            return true;
+        } catch (IOException unreachable) {
+            close(channel);
+            return false;
+        }
+    }
+
+    private static void finishConnect(SelectionKey key, long[] rtts) {
+        Attempt attempt = (Attempt) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            if (channel.finishConnect()) {
+                rtts[attempt.index] = System.nanoTime() - attempt.startedNanos;
+            }
+        } catch (IOException refused) {
+            // refused or unreachable, the node is dropped
+        } finally {
+            key.cancel();
+            close(channel);
+        }
+    }
+
+    private static void close(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // nothing was sent, there is nothing to lose
+        }
+    }
+
+    private static final class Attempt {
+        final int index;
+        final long startedNanos;
+
+        Attempt(int index, long startedNanos) {
+            this.index = index;
+            this.startedNanos = startedNanos;
+        }
+    }
+}
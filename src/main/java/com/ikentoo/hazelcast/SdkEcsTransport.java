@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ecs.AmazonECS;
+import com.amazonaws.services.ecs.model.DescribeContainerInstancesRequest;
+import com.amazonaws.services.ecs.model.DescribeContainerInstancesResult;
+import com.amazonaws.services.ecs.model.DescribeTaskDefinitionRequest;
+import com.amazonaws.services.ecs.model.DescribeTaskDefinitionResult;
+import com.amazonaws.services.ecs.model.DescribeTasksRequest;
+import com.amazonaws.services.ecs.model.DescribeTasksResult;
+import com.amazonaws.services.ecs.model.ListClustersRequest;
+import com.amazonaws.services.ecs.model.ListClustersResult;
+import com.amazonaws.services.ecs.model.ListServicesRequest;
+import com.amazonaws.services.ecs.model.ListServicesResult;
+import com.amazonaws.services.ecs.model.ListTasksRequest;
+import com.amazonaws.services.ecs.model.ListTasksResult;
+
+/** The ECS operations of the discovery through the ECS client of the AWS SDK. */
+final class SdkEcsTransport implements EcsTransport {
+
+    private final AmazonECS client;
+
+    SdkEcsTransport(AmazonECS client) {
+        this.client = client;
+    }
+
+    @Override
+    public ListClustersResult listClusters(ListClustersRequest request) {
+        return client.listClusters(request);
+    }
+
+    @Override
+    public ListServicesResult listServices(ListServicesRequest request) {
+        return client.listServices(request);
+    }
+
+    @Override
+    public ListTasksResult listTasks(ListTasksRequest request) {
+        return client.listTasks(request);
+    }
+
+    @Override
+    public DescribeTasksResult describeTasks(DescribeTasksRequest request) {
+        return client.describeTasks(request);
+    }
+
+    @Override
+    public DescribeTaskDefinitionResult describeTaskDefinition(
+            DescribeTaskDefinitionRequest request) {
+        return client.describeTaskDefinition(request);
+    }
+
+    @Override
+    public DescribeContainerInstancesResult describeContainerInstances(
+            DescribeContainerInstancesRequest request) {
+        return client.describeContainerInstances(request);
+    }
+
+    @Override
+    public void shutdown() {
+        client.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces the concurrent discovery rounds of all strategies of the JVM which discover the same
+ * tasks (single flight): while a round is in flight for a key, other strategies wait for its
+ * result instead of calling AWS themselves. Nothing is kept once the round completed.
+ */
+final class SharedDiscovery {
+
+    private static final ConcurrentMap<String, CompletableFuture<Object>> IN_FLIGHT =
+            new ConcurrentHashMap<>();
+
+    private SharedDiscovery() {}
+
+    /**
+     * Runs the round unless one is in flight for the key already, whose result or failure is
+     * returned instead.
+     *
+     * @param joined called when the result of another strategy's round is returned
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T discover(String key, Supplier<T> round, Runnable joined) {
+        CompletableFuture<Object> own = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = IN_FLIGHT.putIfAbsent(key, own);
+        if (inFlight != null) {
+            joined.run();
+            try {
+                return (T) inFlight.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            T result = round.get();
+            own.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, own);
+        }
+    }
+}
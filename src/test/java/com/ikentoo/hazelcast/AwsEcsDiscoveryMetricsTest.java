@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.hazelcast.logging.Slf4jFactory;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+public class AwsEcsDiscoveryMetricsTest {
+
+    @Test
+    public void histogramPercentiles() {
+        AwsEcsDiscoveryMetrics.LatencyHistogram histogram =
+                new AwsEcsDiscoveryMetrics.LatencyHistogram();
+        assertEquals(0, histogram.percentileMillis(0.5));
+
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(900));
+
+        assertEquals(100, histogram.count());
+        assertEquals(15, histogram.percentileMillis(0.5));
+        assertEquals(15, histogram.percentileMillis(0.99));
+        assertEquals(900, histogram.percentileMillis(1));
+        assertEquals(900, histogram.maxMillis());
+    }
+
+    @Test
+    public void countersAndGauges() {
+        AwsEcsDiscoveryMetrics metrics = new AwsEcsDiscoveryMetrics(() -> Long.MAX_VALUE);
+        metrics.apiCall("ListTasks", TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.apiCall("DescribeTasks", TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.apiCall("DescribeTasks", TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.round(TimeUnit.MILLISECONDS.toNanos(50), 3, 6);
+
+        assertEquals(3, metrics.getApiCalls());
+        assertEquals(Long.valueOf(2), metrics.getApiCallsByOperation().get("DescribeTasks"));
+        assertEquals(1, metrics.getRounds());
+        assertEquals(3, metrics.getTasksSeen());
+        assertEquals(6, metrics.getAddressesReturned());
+        assertEquals(-1, metrics.getSnapshotAgeMillis());
+    }
+
+    @Test
+    public void registeredAsMBean() throws Exception {
+        AwsEcsDiscoveryMetrics metrics = new AwsEcsDiscoveryMetrics(() -> 42);
+        metrics.fallback();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> before =
+                server.queryNames(new ObjectName("com.ikentoo.hazelcast:*"), null);
+
+        metrics.register(new Slf4jFactory().getLogger(""));
+        Set<ObjectName> registered =
+                server.queryNames(new ObjectName("com.ikentoo.hazelcast:*"), null);
+        registered.removeAll(before);
+        assertEquals(1, registered.size());
+        ObjectName name = registered.iterator().next();
+        assertEquals(1L, server.getAttribute(name, "Fallbacks"));
+        assertEquals(42L, server.getAttribute(name, "SnapshotAgeMillis"));
+
+        metrics.unregister(new Slf4jFactory().getLogger(""));
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,929 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static com.hazelcast.spi.partitiongroup.PartitionGroupMetaData.PARTITION_GROUP_ZONE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Slf4jFactory;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.EnvironmentVariables;
+
+/** Discovery against the in-process {@link EcsSimulator}, no AWS account needed. */
+public class AwsEcsDiscoveryStrategySimulationTest {
+
+    private final ILogger logger = new Slf4jFactory().getLogger("simulation");
+    private final List<AwsEcsDiscoveryStrategy> strategies = new ArrayList<>();
+
+    @Rule public final EnvironmentVariables environmentVariables = new EnvironmentVariables();
+
+    @After
+    public void destroy() {
+        strategies.forEach(AwsEcsDiscoveryStrategy::destroy);
+    }
+
+    private AwsEcsDiscoveryStrategy strategy(EcsSimulator ecs, String... properties) {
+        return strategy(ecs, (SqsSimulator) null, properties);
+    }
+
+    private AwsEcsDiscoveryStrategy strategy(
+            EcsSimulator ecs, SqsSimulator sqs, String... properties) {
+        return strategy(ecs, sqs, null, properties);
+    }
+
+    private AwsEcsDiscoveryStrategy strategy(
+            EcsSimulator ecs, SqsSimulator sqs, CloudMapSimulator cloudMap, String... properties) {
+        return strategy(ecs, sqs, cloudMap, null, properties);
+    }
+
+    private AwsEcsDiscoveryStrategy strategy(
+            EcsSimulator ecs,
+            SqsSimulator sqs,
+            CloudMapSimulator cloudMap,
+            Ec2Simulator ec2,
+            String... properties) {
+        Map<String, Comparable> props = new HashMap<>();
+        // a region of its own so that tests do not share a rate limiter
+        props.put("region", "simulation-" + UUID.randomUUID());
+        props.put("api-rate-limit", "100000");
+        props.put("retry-base-delay-millis", "1");
+        props.put("retry-max-delay-millis", "5");
+        for (int i = 0; i < properties.length; i += 2) {
+            props.put(properties[i], properties[i + 1]);
+        }
+        AwsEcsDiscoveryStrategy strategy =
+                new AwsEcsDiscoveryStrategy(
+                        logger,
+                        props,
+                        new SdkEcsTransport(ecs),
+                        sqs == null
+                                ? null
+                                : new EcsTaskEventQueue(
+                                        sqs, AwsEcsProperties.fromProps(props), logger),
+                        cloudMap == null
+                                ? null
+                                : new CloudMapDiscovery(
+                                        cloudMap, AwsEcsProperties.fromProps(props), logger),
+                        ec2 == null ? null : new Ec2Hosts(ec2));
+        strategies.add(strategy);
+        return strategy;
+    }
+
+    private static Set<String> hosts(Iterable<DiscoveryNode> nodes) {
+        return StreamSupport.stream(nodes.spliterator(), false)
+                .map(node -> node.getPrivateAddress().getHost())
+                .collect(Collectors.toSet());
+    }
+
+    private static Set<String> addresses(Iterable<DiscoveryNode> nodes) {
+        return StreamSupport.stream(nodes.spliterator(), false)
+                .map(node -> node.getPrivateAddress())
+                .map(address -> address.getHost() + ":" + address.getPort())
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void discoversAllTasksOfALargeService() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 250);
+        AwsEcsDiscoveryStrategy strategy = strategy(ecs, "cluster", "prod", "service", "api");
+
+        assertEquals(250, hosts(strategy.discoverNodes()).size());
+        assertEquals(3, ecs.calls("ListTasks"));
+        assertEquals(3, ecs.calls("DescribeTasks"));
+    }
+
+    @Test
+    public void stopsTheRoundsRunningWhenDestroyed() throws InterruptedException {
+        EcsSimulator ecs = new EcsSimulator().withLatency(50).withService("prod", "api", 250);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "cluster", "prod", "service", "api", "parallelism", "4");
+        CompletableFuture<Iterable<DiscoveryNode>> round =
+                CompletableFuture.supplyAsync(strategy::discoverNodes);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ecs.calls("ListTasks") == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        strategy.destroy();
+        round.join();
+        ecs.resetCalls();
+        strategy.discoverNodes();
+
+        assertEquals(0, ecs.totalCalls());
+        // the round in flight did not build a new pool
+        while (discoveryThreads() > 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(0, discoveryThreads());
+    }
+
+    private static long discoveryThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().matches("hz-aws-ecs-discovery-\\d+"))
+                .count();
+    }
+
+    @Test
+    public void publishesEveryRoundAsANewGeneration() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 20);
+        AwsEcsDiscoveryStrategy strategy = strategy(ecs, "cluster", "prod", "service", "api");
+        Iterable<DiscoveryNode> first = strategy.discoverNodes();
+
+        ecs.churn("prod", "api", 0.25);
+        Iterable<DiscoveryNode> second = strategy.discoverNodes();
+
+        DiscoverySnapshot snapshot = strategy.snapshot();
+        assertEquals(2, snapshot.getGeneration());
+        assertEquals(5, snapshot.getAdded().size());
+        assertEquals(5, snapshot.getRemoved().size());
+        assertEquals(20, hosts(first).size());
+        assertEquals(hosts(second), hosts(snapshot.getNodes()));
+        // callers keep iterating the generation they got
+        assertTrue(hosts(first).containsAll(hosts(snapshot.getRemoved())));
+    }
+
+    private static void awaitGeneration(AwsEcsDiscoveryStrategy strategy, long generation)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (strategy.snapshot().getGeneration() < generation && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        assertEquals(generation, strategy.snapshot().getGeneration());
+    }
+
+    @Test
+    public void blocksTheFirstCachedDiscovery() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 20);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "cluster", "prod", "service", "api", "cache-ttl", "60");
+
+        assertEquals(20, hosts(strategy.discoverNodes()).size());
+        assertEquals(1, ecs.calls("ListTasks"));
+
+        ecs.startTasks("prod", "api", 5);
+        // served from the cache within the ttl
+        assertEquals(20, hosts(strategy.discoverNodes()).size());
+        assertEquals(1, ecs.calls("ListTasks"));
+    }
+
+    @Test
+    public void servesAnExpiredSnapshotWhileRefreshingInTheBackground()
+            throws InterruptedException {
+        EcsSimulator ecs = new EcsSimulator().withLatency(100).withService("prod", "api", 20);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "cluster", "prod", "service", "api", "cache-ttl", "1");
+        strategy.discoverNodes();
+        TimeUnit.MILLISECONDS.sleep(1100);
+        ecs.startTasks("prod", "api", 5);
+        ecs.resetCalls();
+
+        long started = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(20, hosts(strategy.discoverNodes()).size());
+        }
+        assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(100));
+
+        awaitGeneration(strategy, 2);
+        assertEquals(25, hosts(strategy.discoverNodes()).size());
+        // a single refresh for all the callers of the expired snapshot
+        assertEquals(1, ecs.calls("ListTasks"));
+    }
+
+    @Test
+    public void blocksOnASnapshotPastTheMaximumAge() throws InterruptedException {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 20);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "cache-ttl",
+                        "1",
+                        "cache-max-age",
+                        "2");
+        strategy.discoverNodes();
+        TimeUnit.MILLISECONDS.sleep(2100);
+        ecs.startTasks("prod", "api", 5);
+
+        assertEquals(25, hosts(strategy.discoverNodes()).size());
+        assertEquals(2, ecs.calls("ListTasks"));
+    }
+
+    @Test
+    public void refreshesTheCacheAtTheRefreshInterval() throws InterruptedException {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 20);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "cache-ttl",
+                        "60",
+                        "refresh-interval",
+                        "1");
+        strategy.start();
+        awaitGeneration(strategy, 1);
+        long first = System.nanoTime();
+        ecs.startTasks("prod", "api", 5);
+
+        awaitGeneration(strategy, 2);
+
+        assertTrue(System.nanoTime() - first >= TimeUnit.MILLISECONDS.toNanos(900));
+        assertEquals(2, ecs.calls("ListTasks"));
+        assertEquals(25, hosts(strategy.discoverNodes()).size());
+        assertEquals(2, ecs.calls("ListTasks"));
+    }
+
+    @Test
+    public void discoversEveryPortOfTheRange() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 10);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "cluster", "prod", "service", "api", "ports", "5701-5703");
+
+        int nodes = 0;
+        for (DiscoveryNode ignored : strategy.discoverNodes()) {
+            nodes++;
+        }
+        assertEquals(30, nodes);
+    }
+
+    @Test
+    public void discoversOnlyDeclaredPortsWithExactPorts() {
+        EcsSimulator ecs =
+                new EcsSimulator()
+                        .withContainers("hazelcast", "envoy")
+                        .withPortMappings(5702)
+                        .withService("prod", "api", 10);
+        ecs.withPortMappings(5701, 9000).withNetworkBindings(5703).startTasks("prod", "api", 5);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "ports",
+                        "5701-5703",
+                        "exact-ports",
+                        "true");
+
+        Map<Integer, Integer> nodesPerPort = new HashMap<>();
+        for (DiscoveryNode node : strategy.discoverNodes()) {
+            nodesPerPort.merge(node.getPrivateAddress().getPort(), 1, Integer::sum);
+        }
+        assertEquals(5, (int) nodesPerPort.get(5701));
+        assertEquals(10, (int) nodesPerPort.get(5702));
+        assertEquals(5, (int) nodesPerPort.get(5703));
+        assertEquals(3, nodesPerPort.size());
+        assertEquals(2, ecs.calls("DescribeTaskDefinition"));
+
+        strategy.discoverNodes();
+        assertEquals(2, ecs.calls("DescribeTaskDefinition"));
+    }
+
+    @Test
+    public void ordersNodesOfTheOwnZoneFirst() throws IOException {
+        EcsSimulator ecs = new EcsSimulator().withPortMappings(5701).withService("prod", "api", 9);
+        Path metadata = Files.createTempFile("task", "json");
+        Files.write(
+                metadata,
+                ("{\"TaskARN\": \""
+                                + EcsSimulator.ARN_PREFIX
+                                + "task/prod/1\", \"AvailabilityZone\": \"eu-west-1b\"}")
+                        .getBytes(UTF_8));
+        environmentVariables.set("ECS_CONTAINER_METADATA_FILE", metadata.toString());
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "cluster", "prod", "service", "api", "same-zone-first", "true");
+
+        assertEquals(
+                singletonMap(PARTITION_GROUP_ZONE, "eu-west-1b"), strategy.discoverLocalMetadata());
+        List<DiscoveryNode> nodes = new ArrayList<>();
+        strategy.discoverNodes().forEach(nodes::add);
+        assertEquals(8, nodes.size());
+        // tasks 4 and 7 run in the zone of the own task 1
+        for (int i = 0; i < nodes.size(); i++) {
+            Map<String, Object> properties = nodes.get(i).getProperties();
+            assertEquals(i < 2, "eu-west-1b".equals(properties.get(PARTITION_GROUP_ZONE)));
+            assertEquals(
+                    "hazelcast:1",
+                    properties.get(AwsEcsDiscoveryStrategy.TASK_DEFINITION_PROPERTY));
+            assertEquals("FARGATE", properties.get(AwsEcsDiscoveryStrategy.LAUNCH_TYPE_PROPERTY));
+        }
+    }
+
+    @Test
+    public void skipsTasksWhichCannotAcceptConnections() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 6);
+        String arn = EcsSimulator.ARN_PREFIX + "task/prod/";
+        ecs.task(arn + 0).setLastStatus("PENDING");
+        ecs.task(arn + 1).setStopCode("ServiceSchedulerInitiated");
+        ecs.task(arn + 2).setHealthStatus("UNHEALTHY");
+        ecs.task(arn + 3).getContainers().get(0).setHealthStatus("UNHEALTHY");
+        ecs.task(arn + 5).setHealthStatus("HEALTHY");
+
+        assertEquals(
+                2,
+                hosts(strategy(ecs, "cluster", "prod", "service", "api").discoverNodes()).size());
+        assertEquals(
+                singleton(EcsSimulator.ip(5)),
+                hosts(
+                        strategy(
+                                        ecs,
+                                        "cluster",
+                                        "prod",
+                                        "service",
+                                        "api",
+                                        "health-statuses",
+                                        "HEALTHY")
+                                .discoverNodes()));
+        assertEquals(
+                3,
+                hosts(
+                        strategy(
+                                        ecs,
+                                        "cluster",
+                                        "prod",
+                                        "service",
+                                        "api",
+                                        "task-statuses",
+                                        "running,pending")
+                                .discoverNodes())
+                        .size());
+    }
+
+    @Test
+    public void filtersContainersByName() {
+        EcsSimulator ecs =
+                new EcsSimulator()
+                        .withContainers("hazelcast", "envoy")
+                        .withService("prod", "api", 5);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "container-name-regexp",
+                        "hazel.*");
+
+        int nodes = 0;
+        for (DiscoveryNode ignored : strategy.discoverNodes()) {
+            nodes++;
+        }
+        assertEquals(5, nodes);
+    }
+
+    @Test
+    public void resolvesClustersAndServicesFromPatterns() {
+        EcsSimulator ecs = new EcsSimulator();
+        for (String cluster : new String[] {"dev", "prod-eu", "prod-us"}) {
+            for (int service = 0; service < 12; service++) {
+                ecs.withService(cluster, "service-" + service, 2);
+            }
+        }
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "cluster-name-regexp",
+                        ".*/prod-.*",
+                        "service-name-regexp",
+                        ".*/service-1[01]$");
+
+        // 2 clusters x 2 services x 2 tasks, the matching services are on the second page
+        assertEquals(8, hosts(strategy.discoverNodes()).size());
+        assertEquals(1, ecs.calls("ListClusters"));
+        assertEquals(4, ecs.calls("ListServices"));
+    }
+
+    @Test
+    public void cachesResolvedServices() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 3);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "service-name-regexp", ".*/api", "service-cache-ttl", "60");
+
+        assertEquals(3, hosts(strategy.discoverNodes()).size());
+        ecs.resetCalls();
+        assertEquals(3, hosts(strategy.discoverNodes()).size());
+        assertEquals(0, ecs.calls("ListClusters"));
+        assertEquals(0, ecs.calls("ListServices"));
+    }
+
+    @Test
+    public void resolvesTheServicesAgainOnceOneIsDeleted() {
+        EcsSimulator ecs =
+                new EcsSimulator().withService("prod", "api", 3).withService("prod", "web", 2);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "service-name-regexp", ".*/(api|web)", "service-cache-ttl", "60");
+        assertEquals(5, hosts(strategy.discoverNodes()).size());
+
+        ecs.deleteService("prod", "web");
+        assertEquals(3, hosts(strategy.discoverNodes()).size());
+        ecs.resetCalls();
+
+        assertEquals(3, hosts(strategy.discoverNodes()).size());
+        assertEquals(1, ecs.calls("ListServices"));
+        assertEquals(1, ecs.calls("ListTasks"));
+    }
+
+    @Test
+    public void keepsTheResolvedServicesWhenNoTaskOfTheFamilyRuns() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 3);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "service-name-regexp",
+                        ".*/api",
+                        "service-cache-ttl",
+                        "60",
+                        "task-family",
+                        "other");
+        assertEquals(0, hosts(strategy.discoverNodes()).size());
+        ecs.resetCalls();
+
+        assertEquals(0, hosts(strategy.discoverNodes()).size());
+        assertEquals(0, ecs.calls("ListServices"));
+    }
+
+    @Test
+    public void parallelDiscoveryFindsTheSameNodes() {
+        EcsSimulator ecs = new EcsSimulator();
+        for (int service = 0; service < 5; service++) {
+            ecs.withService("prod", "service-" + service, 230);
+        }
+        Set<String> sequential = hosts(strategy(ecs, "cluster-name-regexp", ".*").discoverNodes());
+        Set<String> parallel =
+                hosts(
+                        strategy(ecs, "cluster-name-regexp", ".*", "parallelism", "8")
+                                .discoverNodes());
+
+        assertEquals(1150, sequential.size());
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void incrementalDiscoveryDescribesOnlyNewTasks() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 300);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "incremental-discovery",
+                        "true");
+        assertEquals(300, hosts(strategy.discoverNodes()).size());
+        assertEquals(3, ecs.calls("DescribeTasks"));
+
+        ecs.resetCalls();
+        ecs.churn("prod", "api", 0.1);
+        Set<String> hosts = hosts(strategy.discoverNodes());
+        assertEquals(300, hosts.size());
+        // the 30 new tasks are spread over the 3 pages
+        assertTrue(ecs.calls("DescribeTasks") <= 3);
+        assertEquals(ecs.taskCount(), hosts.size());
+    }
+
+    @Test
+    public void retriesThrottledCalls() {
+        EcsSimulator ecs =
+                new EcsSimulator().withThrottlingRate(0.3).withService("prod", "api", 500);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "cluster", "prod", "service", "api", "max-retries", "20");
+
+        assertEquals(500, hosts(strategy.discoverNodes()).size());
+        assertTrue(ecs.throttledCalls() > 0);
+    }
+
+    @Test
+    public void recordsTheDiagnosticsOfEachRound() {
+        EcsSimulator ecs =
+                new EcsSimulator().withThrottlingRate(0.3).withService("prod", "api", 250);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, "cluster", "prod", "service", "api", "max-retries", "20");
+        strategy.discoverNodes();
+
+        AwsEcsDiscoveryMetrics metrics = strategy.metrics();
+        assertEquals(1, metrics.getRounds());
+        assertEquals(3, metrics.getPages());
+        assertEquals(3, metrics.getChunks());
+        assertEquals(ecs.throttledCalls(), metrics.getThrottles());
+        // every attempt is timed, the throttled ones too
+        assertEquals(
+                Long.valueOf(ecs.calls("ListTasks")),
+                metrics.getApiCallsByOperation().get("ListTasks"));
+        assertEquals(
+                Long.valueOf(ecs.calls("DescribeTasks")),
+                metrics.getApiCallsByOperation().get("DescribeTasks"));
+        assertEquals(ecs.totalCalls(), metrics.getApiCalls());
+        assertEquals(250, metrics.getTasksSeen());
+        assertEquals(250, metrics.getAddressesReturned());
+        assertEquals(0, metrics.getErrors());
+        assertTrue(metrics.getSnapshotAgeMillis() >= 0);
+
+        ecs.stopTask(EcsSimulator.ARN_PREFIX + "task/prod/0");
+        strategy.discoverNodes();
+
+        assertEquals(2, metrics.getRounds());
+        assertEquals(6, metrics.getPages());
+        assertEquals(249, metrics.getTasksSeen());
+        // the line logged at FINE after each round
+        assertTrue(metrics.toString().contains("rounds=2 "));
+        assertTrue(metrics.toString().contains("tasks=249, addresses=249"));
+    }
+
+    @Test
+    public void keepsPreviousNodesWhenNotFailingFast() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 4);
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "fail-fast",
+                        "false",
+                        "max-retries",
+                        "0");
+        assertEquals(4, hosts(strategy.discoverNodes()).size());
+
+        ecs.withThrottlingRate(1);
+        assertEquals(4, hosts(strategy.discoverNodes()).size());
+    }
+
+    @Test
+    public void startsFromThePersistedSnapshot() throws IOException {
+        String file = Files.createTempDirectory("snapshot").resolve("nodes").toString();
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 5);
+        Set<String> discovered =
+                hosts(
+                        strategy(ecs, "cluster", "prod", "service", "api", "snapshot-file", file)
+                                .discoverNodes());
+
+        // ECS is unavailable when the member restarts
+        EcsSimulator unavailable =
+                new EcsSimulator().withThrottlingRate(1).withService("prod", "api", 5);
+        AwsEcsDiscoveryStrategy restarted =
+                strategy(
+                        unavailable,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "snapshot-file",
+                        file,
+                        "max-retries",
+                        "0");
+        restarted.start();
+
+        assertEquals(5, discovered.size());
+        assertEquals(discovered, hosts(restarted.discoverNodes()));
+    }
+
+    @Test
+    public void appliesTaskStateChangeEvents() throws InterruptedException {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 3);
+        SqsSimulator sqs = new SqsSimulator();
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        sqs,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "event-queue-url",
+                        "https://sqs.eu-west-1.amazonaws.com/012345678910/ecs-events",
+                        "reconcile-interval",
+                        "3600");
+        strategy.start();
+        // wait for the initial reconciliation of the start, the nodes are then served from it
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (strategy.snapshot().getGeneration() == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(3, hosts(strategy.discoverNodes()).size());
+        assertEquals(1, strategy.snapshot().getGeneration());
+        int listTasks = ecs.calls("ListTasks");
+
+        String stopped = EcsSimulator.ARN_PREFIX + "task/prod/0";
+        ecs.task(stopped).setLastStatus("STOPPED");
+        sqs.publish(ecs.task(stopped));
+        ecs.stopTask(stopped);
+        for (String started : ecs.startTasks("prod", "api", 2)) {
+            sqs.publish(ecs.task(started));
+        }
+        sqs.publish("{\"detail-type\": \"ECS Task State Change\", \"detail\": ");
+
+        Set<String> expected = new HashSet<>();
+        for (int id = 1; id < 5; id++) {
+            expected.add(EcsSimulator.ip(id));
+        }
+        while (!expected.equals(hosts(strategy.discoverNodes()))
+                && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(expected, hosts(strategy.discoverNodes()));
+        assertEquals(listTasks, ecs.calls("ListTasks"));
+        while (sqs.pending() > 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(0, sqs.pending());
+    }
+
+    @Test
+    public void skipsCloudMapInstancesWithAnInvalidPort() {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 3);
+        CloudMapSimulator cloudMap =
+                new CloudMapSimulator(ecs)
+                        .withRegistration("prod.internal", "prod", "api")
+                        .withPort(EcsSimulator.ARN_PREFIX + "task/prod/0", "5701")
+                        .withPort(EcsSimulator.ARN_PREFIX + "task/prod/1", "57O1");
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        null,
+                        cloudMap,
+                        "backend",
+                        "cloud-map",
+                        "cloud-map-namespace",
+                        "prod.internal",
+                        "service",
+                        "api",
+                        "ports",
+                        "5701-5702",
+                        "exact-ports",
+                        "true");
+
+        Set<String> addresses = addresses(strategy.discoverNodes());
+        assertTrue(addresses.contains(EcsSimulator.ip(0) + ":5701"));
+        assertFalse(addresses.contains(EcsSimulator.ip(0) + ":5702"));
+        assertFalse(hosts(strategy.discoverNodes()).contains(EcsSimulator.ip(1)));
+        // without a registered port all the configured ones are kept
+        assertTrue(addresses.contains(EcsSimulator.ip(2) + ":5702"));
+    }
+
+    @Test
+    public void discoversTheInstancesOfACloudMapService() throws IOException {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 250);
+        ecs.task(EcsSimulator.ARN_PREFIX + "task/prod/7").setLastStatus("PENDING");
+        CloudMapSimulator cloudMap =
+                new CloudMapSimulator(ecs).withRegistration("prod.internal", "prod", "api");
+        Path metadata = Files.createTempFile("task", "json");
+        Files.write(
+                metadata,
+                ("{\"TaskARN\": \"" + EcsSimulator.ARN_PREFIX + "task/prod/1\"}").getBytes(UTF_8));
+        environmentVariables.set("ECS_CONTAINER_METADATA_FILE", metadata.toString());
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs,
+                        null,
+                        cloudMap,
+                        "backend",
+                        "cloud-map",
+                        "cloud-map-namespace",
+                        "prod.internal",
+                        "service",
+                        "api");
+
+        Set<String> hosts = hosts(strategy.discoverNodes());
+        assertEquals(248, hosts.size());
+        assertFalse(hosts.contains(EcsSimulator.ip(1)));
+        assertFalse(hosts.contains(EcsSimulator.ip(7)));
+        assertEquals(1, cloudMap.calls());
+        assertEquals(0, ecs.totalCalls());
+        // the zone of the own task is learned from its instance
+        assertEquals(
+                singletonMap(PARTITION_GROUP_ZONE, "eu-west-1b"), strategy.discoverLocalMetadata());
+    }
+
+    @Test
+    public void strategiesOfTheJvmShareTheirInFlightRounds() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        EcsSimulator ecs = new EcsSimulator().withGate(gate).withService("prod", "api", 150);
+        String region = "simulation-" + UUID.randomUUID();
+        AwsEcsDiscoveryStrategy leader =
+                strategy(
+                        ecs,
+                        "region",
+                        region,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "shared-discovery",
+                        "true");
+        AwsEcsDiscoveryStrategy follower =
+                strategy(
+                        ecs,
+                        "region",
+                        region,
+                        "cluster",
+                        "prod",
+                        "service",
+                        "api",
+                        "shared-discovery",
+                        "true");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CompletableFuture<Set<String>> led =
+                CompletableFuture.supplyAsync(() -> hosts(leader.discoverNodes()), executor);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ecs.calls("ListTasks") == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        CompletableFuture<Set<String>> followed =
+                CompletableFuture.supplyAsync(() -> hosts(follower.discoverNodes()), executor);
+        // the round stays blocked until the follower joined it
+        while (follower.metrics().getSharedRounds() == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        gate.countDown();
+
+        assertEquals(150, led.get(5, TimeUnit.SECONDS).size());
+        assertEquals(150, followed.get(5, TimeUnit.SECONDS).size());
+        executor.shutdown();
+        assertEquals(0, leader.metrics().getSharedRounds());
+        assertEquals(1, follower.metrics().getSharedRounds());
+        assertEquals(2, ecs.calls("ListTasks"));
+        assertEquals(2, ecs.calls("DescribeTasks"));
+    }
+
+    @Test
+    public void doesNotShareRoundsByDefault() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        EcsSimulator ecs = new EcsSimulator().withGate(gate).withService("prod", "api", 150);
+        String region = "simulation-" + UUID.randomUUID();
+        List<AwsEcsDiscoveryStrategy> members = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            members.add(strategy(ecs, "region", region, "cluster", "prod", "service", "api"));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(members.size());
+        List<CompletableFuture<Set<String>>> discovered = new ArrayList<>();
+        for (AwsEcsDiscoveryStrategy member : members) {
+            discovered.add(
+                    CompletableFuture.supplyAsync(() -> hosts(member.discoverNodes()), executor));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ecs.calls("ListTasks") < 2 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        gate.countDown();
+
+        for (CompletableFuture<Set<String>> hosts : discovered) {
+            assertEquals(150, hosts.get(5, TimeUnit.SECONDS).size());
+        }
+        executor.shutdown();
+        assertEquals(4, ecs.calls("ListTasks"));
+    }
+
+    @Test
+    public void filtersTasksByFamilyStartedByAndTags() {
+        EcsSimulator ecs =
+                new EcsSimulator()
+                        .withStartedBy("ecs-svc/1")
+                        .withTags("role=member")
+                        .withService("prod", "api", 10);
+        ecs.withFamily("sidecar").startTasks("prod", "api", 5);
+        ecs.withFamily("hazelcast")
+                .withStartedBy("canary")
+                .withTags("role=canary", "spot")
+                .startTasks("prod", "api", 3);
+
+        assertEquals(
+                18,
+                hosts(strategy(ecs, "cluster", "prod", "service", "api").discoverNodes()).size());
+        ecs.resetCalls();
+        assertEquals(
+                13,
+                hosts(strategy(ecs, "cluster", "prod", "service", "api", "task-family", "hazelcast")
+                                .discoverNodes())
+                        .size());
+        // the family is filtered by ECS, only the matching tasks are described
+        assertEquals(1, ecs.calls("DescribeTasks"));
+        assertEquals(
+                10,
+                hosts(strategy(
+                                        ecs,
+                                        "cluster",
+                                        "prod",
+                                        "service",
+                                        "api",
+                                        "task-family",
+                                        "hazelcast",
+                                        "task-tags",
+                                        "role=member")
+                                .discoverNodes())
+                        .size());
+        assertEquals(
+                3,
+                hosts(strategy(ecs, "cluster", "prod", "service", "api", "started-by", "canary")
+                                .discoverNodes())
+                        .size());
+        assertEquals(
+                18,
+                hosts(strategy(ecs, "cluster", "prod", "service", "api", "task-tags", "role")
+                                .discoverNodes())
+                        .size());
+        assertEquals(
+                3,
+                hosts(strategy(ecs, "cluster", "prod", "service", "api", "task-tags", "spot")
+                                .discoverNodes())
+                        .size());
+    }
+
+    @Test
+    public void resolvesTheHostsOfTasksInBridgeNetworkMode() {
+        EcsSimulator ecs =
+                new EcsSimulator().withEc2Hosts("prod", 4, 5701).withService("prod", "api", 40);
+        Ec2Simulator ec2 = new Ec2Simulator();
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(ecs, null, null, ec2, "cluster", "prod", "service", "api");
+
+        Set<String> addresses = addresses(strategy.discoverNodes());
+        assertEquals(40, addresses.size());
+        assertTrue(addresses.contains("172.16.0.0:32768"));
+        assertTrue(addresses.contains("172.16.0.3:32807"));
+        assertEquals(1, ecs.calls("DescribeContainerInstances"));
+        assertEquals(1, ec2.calls());
+
+        // the hosts are known, only the new host is described
+        ecs.withEc2Hosts("prod", 1, 5701).startTasks("prod", "api", 10);
+        assertEquals(50, addresses(strategy.discoverNodes()).size());
+        assertEquals(2, ecs.calls("DescribeContainerInstances"));
+        assertEquals(2, ec2.calls());
+        strategy.discoverNodes();
+        assertEquals(2, ecs.calls("DescribeContainerInstances"));
+        assertEquals(2, ec2.calls());
+    }
+
+    /** load profile: 5000 tasks with 5% of the calls throttled and 5ms per call */
+    @Test
+    public void loadProfile() {
+        EcsSimulator ecs = new EcsSimulator().withLatency(5).withThrottlingRate(0.05);
+        for (int service = 0; service < 10; service++) {
+            ecs.withService("prod", "service-" + service, 500);
+        }
+        AwsEcsDiscoveryStrategy strategy =
+                strategy(
+                        ecs, "cluster-name-regexp", ".*", "parallelism", "16", "max-retries", "20");
+
+        long started = System.nanoTime();
+        Set<String> hosts = hosts(strategy.discoverNodes());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        assertEquals(5000, hosts.size());
+        logger.info(
+                String.format(
+                        "5000 tasks discovered in %d ms with %d calls, %d throttled",
+                        millis, ecs.totalCalls(), ecs.throttledCalls()));
+    }
+}
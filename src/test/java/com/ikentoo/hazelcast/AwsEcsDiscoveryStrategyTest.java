@@ -20,13 +20,23 @@ package com.ikentoo.hazelcast;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import com.hazelcast.logging.Slf4jFactory;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.EnvironmentVariables;
@@ -74,6 +84,19 @@ public class AwsEcsDiscoveryStrategyTest {
         return tempFile;
     }
 
+    @Test
+    public void incrementalDiscoveryIsNotSharedWithFullDiscovery() {
+        Map<String, Comparable> properties = new HashMap<>();
+        properties.put("cluster", "prod");
+        properties.put("service", "api");
+        properties.put("shared-discovery", "true");
+        String full = AwsEcsProperties.fromProps(properties).getSharingKey();
+        properties.put("incremental-discovery", "true");
+        String incremental = AwsEcsProperties.fromProps(properties).getSharingKey();
+
+        assertNotEquals(full, incremental);
+    }
+
     @Test
     public void toChunks() {
         List<List<String>> chunks = AwsEcsDiscoveryStrategy.toChunks(2, asList("1", "2"));
@@ -85,4 +108,46 @@ public class AwsEcsDiscoveryStrategyTest {
         chunks = AwsEcsDiscoveryStrategy.toChunks(3, asList("1", "2"));
         assertEquals(1, chunks.size());
     }
+
+    @Test
+    public void pagesFollowNextTokenLazily() {
+        List<String> requested = new ArrayList<>();
+        Stream<String> pages =
+                AwsEcsDiscoveryStrategy.pages(
+                        token -> {
+                            String page =
+                                    token == null
+                                            ? "1"
+                                            : String.valueOf(Integer.parseInt(token) + 1);
+                            requested.add(page);
+                            return page;
+                        },
+                        page -> page.equals("3") ? null : page);
+        assertTrue(requested.isEmpty());
+
+        assertEquals(asList("1", "2", "3"), pages.collect(Collectors.toList()));
+        assertEquals(asList("1", "2", "3"), requested);
+    }
+
+    @Test
+    public void mergeKeepsSubmissionOrder() {
+        CompletableFuture<List<String>> slow = new CompletableFuture<>();
+        CompletableFuture<List<String>> merged =
+                AwsEcsDiscoveryStrategy.merge(
+                        asList(slow, CompletableFuture.completedFuture(asList("3", "4"))));
+        assertFalse(merged.isDone());
+
+        slow.complete(asList("1", "2"));
+        assertEquals(asList("1", "2", "3", "4"), merged.join());
+    }
+
+    @Test
+    public void ipv4ParsesLiteralsOnly() {
+        assertEquals("10.1.2.255", AwsEcsDiscoveryStrategy.ipv4("10.1.2.255").getHostAddress());
+        assertEquals("10.1.2.255", AwsEcsDiscoveryStrategy.ipv4("10.1.2.255").getHostName());
+        for (String invalid :
+                asList(null, "", "10.1.2", "10.1.2.3.4", "10.1..3", "10.1.2.256", "host.local")) {
+            assertNull(invalid, AwsEcsDiscoveryStrategy.ipv4(invalid));
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.servicediscovery.AbstractAWSServiceDiscovery;
+import com.amazonaws.services.servicediscovery.model.DiscoverInstancesRequest;
+import com.amazonaws.services.servicediscovery.model.DiscoverInstancesResult;
+import com.amazonaws.services.servicediscovery.model.HttpInstanceSummary;
+import com.amazonaws.services.servicediscovery.model.NamespaceNotFoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process Cloud Map registering the running tasks of {@link EcsSimulator} services the way ECS
+ * service discovery does: one instance per task, identified by the task id.
+ */
+class CloudMapSimulator extends AbstractAWSServiceDiscovery {
+
+    private final EcsSimulator ecs;
+    /** "namespace/service" to the ECS cluster and service registering in it */
+    private final Map<String, String[]> registrations = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    /** AWS_INSTANCE_PORT attribute per task arn, SRV services register one */
+    private final Map<String, String> ports = new ConcurrentHashMap<>();
+
+    CloudMapSimulator(EcsSimulator ecs) {
+        this.ecs = ecs;
+    }
+
+    CloudMapSimulator withRegistration(String namespace, String cluster, String service) {
+        registrations.put(namespace + "/" + service, new String[] {cluster, service});
+        return this;
+    }
+
+    CloudMapSimulator withPort(String taskArn, String port) {
+        ports.put(taskArn, port);
+        return this;
+    }
+
+    int calls() {
+        return calls.get();
+    }
+
+    @Override
+    public DiscoverInstancesResult discoverInstances(DiscoverInstancesRequest request) {
+        calls.incrementAndGet();
+        String[] registration =
+                registrations.get(request.getNamespaceName() + "/" + request.getServiceName());
+        if (registration == null) {
+            throw new NamespaceNotFoundException("Namespace not found");
+        }
+        List<HttpInstanceSummary> instances = new ArrayList<>();
+        for (Task task : ecs.tasks(registration[0], registration[1])) {
+            if (!"RUNNING".equals(task.getLastStatus())
+                    || instances.size() == request.getMaxResults()) {
+                continue;
+            }
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(
+                    "AWS_INSTANCE_IPV4",
+                    task.getContainers()
+                            .get(0)
+                            .getNetworkInterfaces()
+                            .get(0)
+                            .getPrivateIpv4Address());
+            attributes.put("AVAILABILITY_ZONE", task.getAvailabilityZone());
+            attributes.put("ECS_CLUSTER_NAME", registration[0]);
+            attributes.put("ECS_SERVICE_NAME", registration[1]);
+            String taskArn = task.getTaskArn();
+            if (ports.containsKey(taskArn)) {
+                attributes.put("AWS_INSTANCE_PORT", ports.get(taskArn));
+            }
+            instances.add(
+                    new HttpInstanceSummary()
+                            .withInstanceId(taskArn.substring(taskArn.lastIndexOf('/') + 1))
+                            .withNamespaceName(request.getNamespaceName())
+                            .withServiceName(request.getServiceName())
+                            .withHealthStatus("HEALTHY")
+                            .withAttributes(attributes));
+        }
+        return new DiscoverInstancesResult().withInstances(instances);
+    }
+
+    @Override
+    public void shutdown() {}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.amazonaws.services.ecs.model.ListTasksRequest;
+import com.amazonaws.services.ecs.model.ListTasksResult;
+import com.hazelcast.logging.Slf4jFactory;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiscoveryEventsTest {
+
+    @Before
+    public void requireJfr() {
+        assumeTrue(DiscoveryEvents.isAvailable());
+    }
+
+    private static AwsEcsDiscoveryStrategy strategy(EcsSimulator ecs, String... properties) {
+        Map<String, Comparable> props = new HashMap<>();
+        props.put("region", "events-" + UUID.randomUUID());
+        props.put("cluster", "prod");
+        props.put("service", "api");
+        props.put("retry-base-delay-millis", "1");
+        props.put("retry-max-delay-millis", "5");
+        for (int i = 0; i < properties.length; i += 2) {
+            props.put(properties[i], properties[i + 1]);
+        }
+        return new AwsEcsDiscoveryStrategy(
+                new Slf4jFactory().getLogger("events"),
+                props,
+                new SdkEcsTransport(ecs),
+                null,
+                null,
+                null);
+    }
+
+    private static List<RecordedEvent> record(Runnable discovery) throws IOException {
+        Path file = Files.createTempFile("discovery", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.ikentoo.hazelcast.DiscoveryRound");
+            recording.enable("com.ikentoo.hazelcast.ApiCall");
+            recording.enable("com.ikentoo.hazelcast.DiscoveryFallback");
+            recording.start();
+            discovery.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .collect(toList());
+    }
+
+    @Test
+    public void recordsTheRoundAndEveryApiCall() throws IOException {
+        EcsSimulator ecs = new EcsSimulator().withService("prod", "api", 250);
+        AwsEcsDiscoveryStrategy strategy = strategy(ecs);
+
+        List<RecordedEvent> events = record(strategy::discoverNodes);
+
+        List<RecordedEvent> rounds = events(events, "com.ikentoo.hazelcast.DiscoveryRound");
+        assertEquals(1, rounds.size());
+        assertEquals("ecs", rounds.get(0).getString("backend"));
+        assertEquals(250, rounds.get(0).getInt("nodes"));
+        assertEquals(1, rounds.get(0).getLong("generation"));
+        List<RecordedEvent> listTasks =
+                events(events, "com.ikentoo.hazelcast.ApiCall").stream()
+                        .filter(event -> event.getString("operation").equals("ListTasks"))
+                        .collect(toList());
+        assertEquals(3, listTasks.size());
+        assertEquals(250, listTasks.stream().mapToInt(event -> event.getInt("items")).sum());
+        assertEquals(3, listTasks.get(2).getInt("page"));
+        assertEquals("prod", listTasks.get(0).getString("cluster"));
+        assertFalse(listTasks.get(0).getBoolean("throttled"));
+    }
+
+    @Test
+    public void recordsThrottledCallsAndTheFallback() throws IOException {
+        EcsSimulator ecs = new EcsSimulator().withThrottlingRate(1).withService("prod", "api", 10);
+        AwsEcsDiscoveryStrategy strategy = strategy(ecs, "max-retries", "1", "fail-fast", "false");
+
+        List<RecordedEvent> events = record(strategy::discoverNodes);
+
+        List<RecordedEvent> calls = events(events, "com.ikentoo.hazelcast.ApiCall");
+        assertEquals(2, calls.size());
+        assertEquals(-1, calls.get(1).getInt("items"));
+        assertTrue(calls.get(1).getBoolean("throttled"));
+        assertEquals(1, events(events, "com.ikentoo.hazelcast.DiscoveryFallback").size());
+    }
+
+    @Test
+    public void recordsCallsFailingWithOtherExceptions() throws IOException {
+        EcsSimulator ecs =
+                new EcsSimulator() {
+                    @Override
+                    public ListTasksResult listTasks(ListTasksRequest request) {
+                        throw new IllegalStateException("broken transport");
+                    }
+                }.withService("prod", "api", 10);
+        AwsEcsDiscoveryStrategy strategy = strategy(ecs, "fail-fast", "false");
+
+        List<RecordedEvent> events = record(strategy::discoverNodes);
+
+        List<RecordedEvent> calls = events(events, "com.ikentoo.hazelcast.ApiCall");
+        assertEquals(1, calls.size());
+        assertEquals(-1, calls.get(0).getInt("items"));
+        assertFalse(calls.get(0).getBoolean("throttled"));
+    }
+}
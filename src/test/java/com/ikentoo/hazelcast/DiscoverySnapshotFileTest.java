@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import com.hazelcast.spi.discovery.SimpleDiscoveryNode;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class DiscoverySnapshotFileTest {
+
+    private final Path path = newPath();
+
+    private static Path newPath() {
+        try {
+            return Files.createTempDirectory("snapshot").resolve("nodes.snapshot");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void writesAndReadsNodes() throws IOException {
+        List<DiscoveryNode> nodes =
+                Arrays.asList(
+                        new SimpleDiscoveryNode(
+                                new Address(AwsEcsDiscoveryStrategy.ipv4("10.0.0.1"), 5701),
+                                Collections.singletonMap(
+                                        AwsEcsDiscoveryStrategy.TASK_DEFINITION_PROPERTY,
+                                        "hazel cast:1")),
+                        new SimpleDiscoveryNode(
+                                new Address(AwsEcsDiscoveryStrategy.ipv4("10.0.0.2"), 5702)));
+        DiscoverySnapshotFile file = new DiscoverySnapshotFile(path);
+        file.write(nodes, 1234L);
+
+        DiscoverySnapshotFile.Snapshot snapshot = file.read();
+        assertEquals(1234L, snapshot.timestampMillis);
+        assertEquals(2, snapshot.nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            DiscoveryNode read = snapshot.nodes.get(i);
+            assertEquals(nodes.get(i).getPrivateAddress(), read.getPrivateAddress());
+            assertEquals(nodes.get(i).getProperties(), read.getProperties());
+        }
+        assertEquals(1, Files.list(path.getParent()).count());
+    }
+
+    @Test
+    public void missingFileIsNoSnapshot() throws IOException {
+        assertNull(new DiscoverySnapshotFile(path).read());
+    }
+
+    @Test
+    public void rejectsCorruptedFiles() throws IOException {
+        DiscoverySnapshotFile file = new DiscoverySnapshotFile(path);
+        file.write(
+                Collections.singletonList(
+                        new SimpleDiscoveryNode(
+                                new Address(AwsEcsDiscoveryStrategy.ipv4("10.0.0.1"), 5701))),
+                1234L);
+        String content = new String(Files.readAllBytes(path), UTF_8);
+        Files.write(path, content.replace("10.0.0.1", "10.0.0.9").getBytes(UTF_8));
+
+        try {
+            file.read();
+            fail("accepted a corrupted snapshot");
+        } catch (IOException expected) {
+        }
+    }
+}
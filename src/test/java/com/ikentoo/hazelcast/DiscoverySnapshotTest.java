@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import com.hazelcast.spi.discovery.SimpleDiscoveryNode;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class DiscoverySnapshotTest {
+
+    private static Address address(String ip) {
+        return new Address(AwsEcsDiscoveryStrategy.ipv4(ip), 5701);
+    }
+
+    private static DiscoveryNode node(String ip) {
+        return new SimpleDiscoveryNode(address(ip));
+    }
+
+    private static List<Address> addresses(List<DiscoveryNode> nodes) {
+        return nodes.stream().map(DiscoveryNode::getPrivateAddress).collect(Collectors.toList());
+    }
+
+    @Test
+    public void publicationsCarryTheirGenerationAndChanges() {
+        DiscoverySnapshot first =
+                DiscoverySnapshot.EMPTY.next(asList(node("10.0.0.1"), node("10.0.0.2")));
+        assertEquals(1, first.getGeneration());
+        assertEquals(2, first.getAdded().size());
+        assertTrue(first.getRemoved().isEmpty());
+
+        DiscoverySnapshot second = first.next(asList(node("10.0.0.2"), node("10.0.0.3")));
+        assertEquals(2, second.getGeneration());
+        assertEquals(singletonList(address("10.0.0.3")), addresses(second.getAdded()));
+        assertEquals(singletonList(address("10.0.0.1")), addresses(second.getRemoved()));
+
+        DiscoverySnapshot unchanged = second.next(asList(node("10.0.0.3"), node("10.0.0.2")));
+        assertEquals(3, unchanged.getGeneration());
+        assertFalse(unchanged.isChanged());
+    }
+
+    @Test
+    public void nodesAreServedWithoutCopies() {
+        DiscoverySnapshot snapshot = DiscoverySnapshot.EMPTY.next(asList(node("10.0.0.1")));
+        List<DiscoveryNode> nodes = snapshot.getNodes();
+
+        assertSame(nodes, snapshot.getNodes());
+        try {
+            nodes.clear();
+            fail("the published nodes are modifiable");
+        } catch (UnsupportedOperationException expected) {
+            assertEquals(1, nodes.size());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.Reservation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** In-process EC2 describing the hosts of {@link EcsSimulator} container instances. */
+class Ec2Simulator extends AbstractAmazonEC2 {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    int calls() {
+        return calls.get();
+    }
+
+    @Override
+    public DescribeInstancesResult describeInstances(DescribeInstancesRequest request) {
+        calls.incrementAndGet();
+        List<Instance> instances = new ArrayList<>();
+        for (String instanceId : request.getInstanceIds()) {
+            instances.add(
+                    new Instance()
+                            .withInstanceId(instanceId)
+                            .withPrivateIpAddress(EcsSimulator.hostIp(instanceId)));
+        }
+        // one reservation per launch request, a single one is enough here
+        return new DescribeInstancesResult()
+                .withReservations(new Reservation().withInstances(instances));
+    }
+
+    @Override
+    public void shutdown() {}
+}
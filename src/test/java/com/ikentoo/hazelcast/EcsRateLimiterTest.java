@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class EcsRateLimiterTest {
+
+    @Test
+    public void burstIsServedWithoutWaiting() {
+        EcsRateLimiter limiter = new EcsRateLimiter(10, 3);
+        long now = System.nanoTime();
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now));
+
+        long wait = limiter.reserve(now);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), wait, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void tokensAreRefilledAtTheRate() {
+        EcsRateLimiter limiter = new EcsRateLimiter(10, 1);
+        long now = System.nanoTime();
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(0, limiter.reserve(now + TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+    @Test
+    public void rateDecreasesOnThrottlingAndRecoversSlowly() {
+        EcsRateLimiter limiter = new EcsRateLimiter(10, 1);
+        limiter.onThrottled();
+        assertEquals(5, limiter.rate(), 0.001);
+        limiter.onThrottled();
+        assertEquals(2.5, limiter.rate(), 0.001);
+
+        limiter.onSuccess();
+        assertEquals(2.5 + EcsRateLimiter.ADDITIVE_INCREASE, limiter.rate(), 0.001);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(10, limiter.rate(), 0.001);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onThrottled();
+        }
+        assertEquals(EcsRateLimiter.MIN_RATE, limiter.rate(), 0.001);
+    }
+
+    @Test
+    public void limitersAreSharedPerKey() {
+        EcsRateLimiter limiter = EcsRateLimiter.shared("eu-west-1/key", 10, 10);
+        assertSame(limiter, EcsRateLimiter.shared("eu-west-1/key", 20, 20));
+        assertTrue(limiter != EcsRateLimiter.shared("us-east-1/key", 10, 10));
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() {
+        assertEquals(100, EcsRateLimiter.nextBackoffMillis(100, 100, 5000, 0));
+        assertEquals(300, EcsRateLimiter.nextBackoffMillis(100, 100, 5000, 1));
+        assertEquals(200, EcsRateLimiter.nextBackoffMillis(100, 100, 5000, 0.5));
+        assertEquals(5000, EcsRateLimiter.nextBackoffMillis(4000, 100, 5000, 1));
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ecs.AbstractAmazonECS;
+import com.amazonaws.services.ecs.model.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * In-process ECS serving clusters, services and tasks for offline tests and load profiles. It
+ * paginates like ECS does and can add latency, throttle a share of the calls and churn tasks.
+ */
+class EcsSimulator extends AbstractAmazonECS {
+
+    static final String ARN_PREFIX = "arn:aws:ecs:eu-west-1:012345678910:";
+
+    private final Map<String, Map<String, List<String>>> services = new LinkedHashMap<>();
+    private final Map<String, Task> tasks = new LinkedHashMap<>();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final AtomicInteger throttled = new AtomicInteger();
+    private final Random random = new Random(42);
+
+    private int nextTaskId;
+    private long latencyMillis;
+    private volatile CountDownLatch gate;
+    private double throttlingRate;
+    private String[] containerNames = {"hazelcast"};
+    private final Map<String, TaskDefinition> taskDefinitions = new LinkedHashMap<>();
+    private String taskDefinitionArn = ARN_PREFIX + "task-definition/hazelcast:1";
+    private int[] boundPorts = {};
+    private String[] zones = {"eu-west-1a", "eu-west-1b", "eu-west-1c"};
+    private String family = "hazelcast";
+    private String startedBy;
+    private List<Tag> tags = new ArrayList<>();
+    /** container instance ARN to EC2 instance id of the hosts of the bridge network mode */
+    private final Map<String, String> hosts = new LinkedHashMap<>();
+    private int[] bridgedPorts;
+
+    EcsSimulator withLatency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /** the calls are counted, then wait until the gate opens */
+    EcsSimulator withGate(CountDownLatch gate) {
+        this.gate = gate;
+        return this;
+    }
+
+    /** share of calls failing with a ThrottlingException */
+    EcsSimulator withThrottlingRate(double rate) {
+        this.throttlingRate = rate;
+        return this;
+    }
+
+    EcsSimulator withContainers(String... names) {
+        this.containerNames = names;
+        return this;
+    }
+
+    /**
+     * new tasks use a task definition revision mapping the given ports in their first container,
+     * the other containers don't map any
+     */
+    synchronized EcsSimulator withPortMappings(int... ports) {
+        int revision = taskDefinitions.size() + 1;
+        taskDefinitionArn = ARN_PREFIX + "task-definition/" + family + ":" + revision;
+        List<ContainerDefinition> definitions = new ArrayList<>();
+        for (String name : containerNames) {
+            List<PortMapping> portMappings = new ArrayList<>();
+            if (definitions.isEmpty()) {
+                for (int port : ports) {
+                    portMappings.add(new PortMapping().withContainerPort(port));
+                }
+            }
+            definitions.add(
+                    new ContainerDefinition().withName(name).withPortMappings(portMappings));
+        }
+        taskDefinitions.put(
+                taskDefinitionArn,
+                new TaskDefinition()
+                        .withTaskDefinitionArn(taskDefinitionArn)
+                        .withContainerDefinitions(definitions));
+        return this;
+    }
+
+    /** new tasks run a revision of the given task definition family */
+    synchronized EcsSimulator withFamily(String family) {
+        this.family = family;
+        this.taskDefinitionArn =
+                ARN_PREFIX + "task-definition/" + family + ":" + (taskDefinitions.size() + 1);
+        return this;
+    }
+
+    /** new tasks are started by the given principal, as by a deployment tool */
+    synchronized EcsSimulator withStartedBy(String startedBy) {
+        this.startedBy = startedBy;
+        return this;
+    }
+
+    /** new tasks are tagged with the given "key=value" tags, a bare key is a tag without value */
+    synchronized EcsSimulator withTags(String... tags) {
+        this.tags = new ArrayList<>();
+        for (String tag : tags) {
+            String[] keyValue = tag.split("=", 2);
+            this.tags.add(
+                    new Tag()
+                            .withKey(keyValue[0])
+                            .withValue(keyValue.length > 1 ? keyValue[1] : null));
+        }
+        return this;
+    }
+
+    /** new tasks are spread round robin over the given availability zones */
+    EcsSimulator withZones(String... zones) {
+        this.zones = zones;
+        return this;
+    }
+
+    /** the first container of new tasks reports network bindings of the given ports */
+    EcsSimulator withNetworkBindings(int... ports) {
+        this.boundPorts = ports;
+        return this;
+    }
+
+    /**
+     * new tasks are placed round robin on the given number of EC2 hosts in the bridge network
+     * mode: their containers have no network interface and the given container ports are bound
+     * to dynamic host ports
+     */
+    synchronized EcsSimulator withEc2Hosts(String cluster, int count, int... containerPorts) {
+        for (int i = 0; i < count; i++) {
+            int id = hosts.size();
+            hosts.put(ARN_PREFIX + "container-instance/" + cluster + "/" + id, "i-" + id);
+        }
+        this.bridgedPorts = containerPorts;
+        return this;
+    }
+
+    /** private IP of an EC2 host */
+    static String hostIp(String instanceId) {
+        int id = Integer.parseInt(instanceId.substring("i-".length()));
+        return "172.16." + (id >> 8 & 255) + "." + (id & 255);
+    }
+
+    static String clusterArn(String cluster) {
+        return ARN_PREFIX + "cluster/" + cluster;
+    }
+
+    static String serviceArn(String cluster, String service) {
+        return ARN_PREFIX + "service/" + cluster + "/" + service;
+    }
+
+    synchronized EcsSimulator withService(String cluster, String service, int taskCount) {
+        services.computeIfAbsent(clusterArn(cluster), c -> new LinkedHashMap<>())
+                .put(serviceArn(cluster, service), new ArrayList<>());
+        startTasks(cluster, service, taskCount);
+        return this;
+    }
+
+    synchronized List<String> startTasks(String cluster, String service, int count) {
+        List<String> taskArns = services.get(clusterArn(cluster)).get(serviceArn(cluster, service));
+        List<String> started = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int id = nextTaskId++;
+            String taskArn = ARN_PREFIX + "task/" + cluster + "/" + id;
+            List<Container> containers = new ArrayList<>();
+            for (String name : containerNames) {
+                List<NetworkBinding> bindings = new ArrayList<>();
+                List<NetworkInterface> networkInterfaces = new ArrayList<>();
+                if (bridgedPorts != null) {
+                    for (int port : bridgedPorts) {
+                        bindings.add(
+                                new NetworkBinding()
+                                        .withBindIP("0.0.0.0")
+                                        .withContainerPort(port)
+                                        .withHostPort(32768 + id)
+                                        .withProtocol("tcp"));
+                    }
+                } else {
+                    if (containers.isEmpty()) {
+                        for (int port : boundPorts) {
+                            bindings.add(
+                                    new NetworkBinding()
+                                            .withContainerPort(port)
+                                            .withHostPort(port));
+                        }
+                    }
+                    networkInterfaces.add(new NetworkInterface().withPrivateIpv4Address(ip(id)));
+                }
+                containers.add(
+                        new Container()
+                                .withName(name)
+                                .withTaskArn(taskArn)
+                                .withLastStatus("RUNNING")
+                                .withNetworkBindings(bindings)
+                                .withNetworkInterfaces(networkInterfaces));
+            }
+            String containerInstanceArn =
+                    bridgedPorts == null
+                            ? null
+                            : new ArrayList<>(hosts.keySet()).get(id % hosts.size());
+            tasks.put(
+                    taskArn,
+                    new Task()
+                            .withTaskArn(taskArn)
+                            .withClusterArn(clusterArn(cluster))
+                            .withTaskDefinitionArn(taskDefinitionArn)
+                            .withAvailabilityZone(zones[id % zones.length])
+                            .withLaunchType(bridgedPorts == null ? "FARGATE" : "EC2")
+                            .withContainerInstanceArn(containerInstanceArn)
+                            .withGroup("service:" + service)
+                            .withStartedBy(startedBy)
+                            .withTags(new ArrayList<>(tags))
+                            .withLastStatus("RUNNING")
+                            .withDesiredStatus("RUNNING")
+                            .withContainers(containers));
+            taskArns.add(taskArn);
+            started.add(taskArn);
+        }
+        return started;
+    }
+
+    synchronized void stopTask(String taskArn) {
+        tasks.remove(taskArn);
+        services.values().forEach(s -> s.values().forEach(arns -> arns.remove(taskArn)));
+    }
+
+    /** deletes the service with its tasks, listing them fails with ServiceNotFoundException */
+    synchronized void deleteService(String cluster, String service) {
+        new ArrayList<>(services.get(clusterArn(cluster)).get(serviceArn(cluster, service)))
+                .forEach(this::stopTask);
+        services.get(clusterArn(cluster)).remove(serviceArn(cluster, service));
+    }
+
+    /** stops the given share of the service's tasks and starts as many new ones */
+    synchronized void churn(String cluster, String service, double share) {
+        List<String> taskArns = services.get(clusterArn(cluster)).get(serviceArn(cluster, service));
+        int count = (int) Math.round(taskArns.size() * share);
+        for (int i = 0; i < count; i++) {
+            stopTask(taskArns.get(random.nextInt(taskArns.size())));
+        }
+        startTasks(cluster, service, count);
+    }
+
+    synchronized Task task(String taskArn) {
+        return tasks.get(taskArn);
+    }
+
+    synchronized List<Task> tasks(String cluster, String service) {
+        return services.getOrDefault(clusterArn(cluster), new LinkedHashMap<>())
+                .getOrDefault(serviceArn(cluster, service), new ArrayList<>()).stream()
+                .map(tasks::get)
+                .collect(Collectors.toList());
+    }
+
+    synchronized int taskCount() {
+        return tasks.size();
+    }
+
+    static String ip(int id) {
+        return "10." + (id >> 16 & 255) + "." + (id >> 8 & 255) + "." + (id & 255);
+    }
+
+    int calls(String operation) {
+        AtomicInteger count = calls.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    int totalCalls() {
+        return calls.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    int throttledCalls() {
+        return throttled.get();
+    }
+
+    void resetCalls() {
+        calls.clear();
+        throttled.set(0);
+    }
+
+    private void call(String operation) {
+        calls.computeIfAbsent(operation, op -> new AtomicInteger()).incrementAndGet();
+        try {
+            if (gate != null) {
+                gate.await();
+            }
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean throttle;
+        synchronized (this) {
+            throttle = random.nextDouble() < throttlingRate;
+        }
+        if (throttle) {
+            throttled.incrementAndGet();
+            AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+            e.setErrorCode("ThrottlingException");
+            e.setStatusCode(400);
+            e.setServiceName("AmazonECS");
+            throw e;
+        }
+    }
+
+    private static <T> List<T> page(List<T> items, String nextToken, int pageSize) {
+        int from = nextToken == null ? 0 : Integer.parseInt(nextToken);
+        return new ArrayList<>(items.subList(from, Math.min(items.size(), from + pageSize)));
+    }
+
+    private static String nextToken(List<?> items, String nextToken, int pageSize) {
+        int to = (nextToken == null ? 0 : Integer.parseInt(nextToken)) + pageSize;
+        return to < items.size() ? String.valueOf(to) : null;
+    }
+
+    private static int pageSize(Integer maxResults, int max) {
+        return maxResults == null ? max : Math.min(maxResults, max);
+    }
+
+    private String clusterArnOf(String cluster) {
+        return cluster.startsWith(ARN_PREFIX) ? cluster : clusterArn(cluster);
+    }
+
+    @Override
+    public ListClustersResult listClusters(ListClustersRequest request) {
+        call("ListClusters");
+        synchronized (this) {
+            List<String> clusterArns = new ArrayList<>(services.keySet());
+            int pageSize = pageSize(request.getMaxResults(), 100);
+            return new ListClustersResult()
+                    .withClusterArns(page(clusterArns, request.getNextToken(), pageSize))
+                    .withNextToken(nextToken(clusterArns, request.getNextToken(), pageSize));
+        }
+    }
+
+    @Override
+    public ListServicesResult listServices(ListServicesRequest request) {
+        call("ListServices");
+        synchronized (this) {
+            Map<String, List<String>> clusterServices =
+                    services.getOrDefault(
+                            clusterArnOf(request.getCluster()), new LinkedHashMap<>());
+            List<String> serviceArns = new ArrayList<>(clusterServices.keySet());
+            int pageSize = pageSize(request.getMaxResults(), 10);
+            return new ListServicesResult()
+                    .withServiceArns(page(serviceArns, request.getNextToken(), pageSize))
+                    .withNextToken(nextToken(serviceArns, request.getNextToken(), pageSize));
+        }
+    }
+
+    @Override
+    public ListTasksResult listTasks(ListTasksRequest request) {
+        call("ListTasks");
+        synchronized (this) {
+            String clusterArn = clusterArnOf(request.getCluster());
+            String service = request.getServiceName();
+            String cluster = clusterArn.substring(clusterArn.indexOf('/') + 1);
+            String serviceArn =
+                    service.startsWith(ARN_PREFIX) ? service : serviceArn(cluster, service);
+            List<String> serviceTasks =
+                    services.getOrDefault(clusterArn, new LinkedHashMap<>()).get(serviceArn);
+            if (serviceTasks == null) {
+                AmazonServiceException e = new AmazonServiceException("Service not found.");
+                e.setErrorCode("ServiceNotFoundException");
+                e.setStatusCode(400);
+                e.setServiceName("AmazonECS");
+                throw e;
+            }
+            List<String> taskArns =
+                    serviceTasks.stream()
+                            .filter(arn -> hasFamily(tasks.get(arn), request.getFamily()))
+                            .collect(Collectors.toList());
+            int pageSize = pageSize(request.getMaxResults(), 100);
+            return new ListTasksResult()
+                    .withTaskArns(page(taskArns, request.getNextToken(), pageSize))
+                    .withNextToken(nextToken(taskArns, request.getNextToken(), pageSize));
+        }
+    }
+
+    @Override
+    public DescribeTasksResult describeTasks(DescribeTasksRequest request) {
+        call("DescribeTasks");
+        if (request.getTasks().size() > 100) {
+            AmazonServiceException e = new AmazonServiceException("too many tasks");
+            e.setErrorCode("InvalidParameterException");
+            e.setStatusCode(400);
+            throw e;
+        }
+        synchronized (this) {
+            List<Task> described =
+                    request.getTasks().stream()
+                            .map(tasks::get)
+                            .filter(Objects::nonNull)
+                            .map(task -> withoutTagsUnlessIncluded(task, request))
+                            .collect(Collectors.toList());
+            List<Failure> failures =
+                    request.getTasks().stream()
+                            .filter(arn -> !tasks.containsKey(arn))
+                            .map(arn -> new Failure().withArn(arn).withReason("MISSING"))
+                            .collect(Collectors.toList());
+            return new DescribeTasksResult().withTasks(described).withFailures(failures);
+        }
+    }
+
+    private static boolean hasFamily(Task task, String family) {
+        return family == null
+                || task.getTaskDefinitionArn() != null
+                        && task.getTaskDefinitionArn().contains("task-definition/" + family + ":");
+    }
+
+    /** ECS only returns the tags of the tasks when asked to */
+    private static Task withoutTagsUnlessIncluded(Task task, DescribeTasksRequest request) {
+        if (request.getInclude() != null && request.getInclude().contains("TAGS")) {
+            return task;
+        }
+        Task withoutTags = task.clone();
+        withoutTags.setTags(new ArrayList<>());
+        return withoutTags;
+    }
+
+    @Override
+    public DescribeContainerInstancesResult describeContainerInstances(
+            DescribeContainerInstancesRequest request) {
+        call("DescribeContainerInstances");
+        synchronized (this) {
+            List<ContainerInstance> described = new ArrayList<>();
+            for (String arn : request.getContainerInstances()) {
+                if (hosts.containsKey(arn)) {
+                    described.add(
+                            new ContainerInstance()
+                                    .withContainerInstanceArn(arn)
+                                    .withEc2InstanceId(hosts.get(arn)));
+                }
+            }
+            return new DescribeContainerInstancesResult().withContainerInstances(described);
+        }
+    }
+
+    @Override
+    public DescribeTaskDefinitionResult describeTaskDefinition(
+            DescribeTaskDefinitionRequest request) {
+        call("DescribeTaskDefinition");
+        synchronized (this) {
+            TaskDefinition taskDefinition = taskDefinitions.get(request.getTaskDefinition());
+            if (taskDefinition == null) {
+                AmazonServiceException e =
+                        new AmazonServiceException("Unable to describe task definition.");
+                e.setErrorCode("ClientException");
+                e.setStatusCode(400);
+                throw e;
+            }
+            return new DescribeTaskDefinitionResult().withTaskDefinition(taskDefinition);
+        }
+    }
+
+    @Override
+    public void shutdown() {}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.ecs.model.Container;
+import com.amazonaws.services.ecs.model.Task;
+import com.hazelcast.logging.Slf4jFactory;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EcsTaskEventQueueTest {
+
+    private static final String EVENT =
+            "{\n"
+                    + "  \"version\": \"0\",\n"
+                    + "  \"id\": \"3317b2af-7005-947d-b652-f55e762e571a\",\n"
+                    + "  \"detail-type\": \"ECS Task State Change\",\n"
+                    + "  \"source\": \"aws.ecs\",\n"
+                    + "  \"account\": \"111122223333\",\n"
+                    + "  \"time\": \"2020-01-23T17:57:58Z\",\n"
+                    + "  \"region\": \"us-west-2\",\n"
+                    + "  \"resources\": [\"arn:aws:ecs:us-west-2:111122223333:task/FargateCluster/c13b4cb40f1f4fe4a2971f76ae5a47ad\"],\n"
+                    + "  \"detail\": {\n"
+                    + "    \"attachments\": [{\"id\": \"1789bcae\", \"type\": \"eni\", \"status\": \"ATTACHED\",\n"
+                    + "      \"details\": [{\"name\": \"privateIPv4Address\", \"value\": \"10.0.0.139\"}]}],\n"
+                    + "    \"availabilityZone\": \"us-west-2c\",\n"
+                    + "    \"clusterArn\": \"arn:aws:ecs:us-west-2:111122223333:cluster/FargateCluster\",\n"
+                    + "    \"containers\": [\n"
+                    + "      {\n"
+                    + "        \"containerArn\": \"arn:aws:ecs:us-west-2:111122223333:container/cf159fd6\",\n"
+                    + "        \"lastStatus\": \"RUNNING\",\n"
+                    + "        \"name\": \"FargateApp\",\n"
+                    + "        \"image\": \"111122223333.dkr.ecr.us-west-2.amazonaws.com/hello-repository:latest\",\n"
+                    + "        \"runtimeId\": \"ad64cbc71c7fb31c55507ec24c9f77947132b03d48d9961115cf24f3b7307e1e\",\n"
+                    + "        \"taskArn\": \"arn:aws:ecs:us-west-2:111122223333:task/FargateCluster/c13b4cb40f1f4fe4a2971f76ae5a47ad\",\n"
+                    + "        \"networkInterfaces\": [{\"attachmentId\": \"1789bcae\", \"privateIpv4Address\": \"10.0.0.139\"}],\n"
+                    + "        \"networkBindings\": [],\n"
+                    + "        \"cpu\": \"0\",\n"
+                    + "        \"healthStatus\": null\n"
+                    + "      }\n"
+                    + "    ],\n"
+                    + "    \"createdAt\": \"2020-01-23T17:57:34.402Z\",\n"
+                    + "    \"launchType\": \"FARGATE\",\n"
+                    + "    \"cpu\": \"256\",\n"
+                    + "    \"memory\": \"512\",\n"
+                    + "    \"desiredStatus\": \"RUNNING\",\n"
+                    + "    \"group\": \"service:hazelcast\",\n"
+                    + "    \"lastStatus\": \"RUNNING\",\n"
+                    + "    \"overrides\": {\"containerOverrides\": [{\"name\": \"FargateApp\"}]},\n"
+                    + "    \"connectivity\": \"CONNECTED\",\n"
+                    + "    \"startedBy\": \"ecs-svc/1234567890\",\n"
+                    + "    \"taskArn\": \"arn:aws:ecs:us-west-2:111122223333:task/FargateCluster/c13b4cb40f1f4fe4a2971f76ae5a47ad\",\n"
+                    + "    \"taskDefinitionArn\": \"arn:aws:ecs:us-west-2:111122223333:task-definition/hazelcast:1\",\n"
+                    + "    \"version\": 4,\n"
+                    + "    \"platformVersion\": \"1.3.0\"\n"
+                    + "  }\n"
+                    + "}";
+
+    private final SqsSimulator sqs = new SqsSimulator();
+    private final AtomicInteger changes = new AtomicInteger();
+    private final EcsTaskEventQueue events =
+            new EcsTaskEventQueue(
+                    sqs,
+                    config("socket-timeout-millis", "5000"),
+                    new Slf4jFactory().getLogger("events"));
+
+    private static AwsEcsProperties.Config config(String... properties) {
+        Map<String, Comparable> props = new HashMap<>();
+        props.put("event-queue-url", "queue");
+        props.put("retry-base-delay-millis", "1");
+        props.put("retry-max-delay-millis", "5");
+        for (int i = 0; i < properties.length; i += 2) {
+            props.put(properties[i], properties[i + 1]);
+        }
+        return AwsEcsProperties.fromProps(props);
+    }
+
+    @Before
+    public void start() {
+        events.start(
+                task -> "service:hazelcast".equals(task.getGroup()), changes::incrementAndGet);
+    }
+
+    @After
+    public void stop() {
+        events.stop();
+    }
+
+    @Test
+    public void parsesTaskStateChangeEvent() throws IOException {
+        Task task = EcsTaskEventQueue.parse(new StringReader(EVENT));
+
+        assertEquals(
+                "arn:aws:ecs:us-west-2:111122223333:task/FargateCluster/"
+                        + "c13b4cb40f1f4fe4a2971f76ae5a47ad",
+                task.getTaskArn());
+        assertEquals(
+                "arn:aws:ecs:us-west-2:111122223333:cluster/FargateCluster", task.getClusterArn());
+        assertEquals("service:hazelcast", task.getGroup());
+        assertEquals("RUNNING", task.getLastStatus());
+        assertEquals("us-west-2c", task.getAvailabilityZone());
+        assertEquals("FARGATE", task.getLaunchType());
+        assertEquals(Long.valueOf(4), task.getVersion());
+        assertNull(task.getStopCode());
+        Container container = task.getContainers().get(0);
+        assertEquals("FargateApp", container.getName());
+        assertNull(container.getHealthStatus());
+        assertEquals(
+                "10.0.0.139", container.getNetworkInterfaces().get(0).getPrivateIpv4Address());
+        assertTrue(container.getNetworkBindings().isEmpty());
+    }
+
+    @Test
+    public void ignoresOtherEvents() throws IOException {
+        assertNull(
+                EcsTaskEventQueue.parse(
+                        new StringReader(
+                                EVENT.replace(
+                                        "ECS Task State Change", "ECS Container Instance State"))));
+    }
+
+    @Test
+    public void keepsTheMostRecentStateOfATask() throws IOException {
+        Task running = EcsTaskEventQueue.parse(new StringReader(EVENT));
+        Task stopped =
+                EcsTaskEventQueue.parse(
+                        new StringReader(
+                                EVENT.replace("\"RUNNING\"", "\"STOPPED\"")
+                                        .replace("\"version\": 4", "\"version\": 6")));
+
+        assertTrue(events.apply(stopped));
+        assertFalse(events.apply(running));
+        assertEquals(singletonList(stopped), events.tasks());
+
+        // the description of a reconciliation started before the event is outdated
+        List<Task> reconciled = events.reconcile(singletonList(running), System.nanoTime());
+        assertEquals(singletonList(stopped), reconciled);
+    }
+
+    @Test
+    public void ignoresTasksOfOtherServices() throws IOException {
+        Task task =
+                EcsTaskEventQueue.parse(
+                        new StringReader(EVENT.replace("service:hazelcast", "service:other")));
+
+        assertFalse(events.apply(task));
+        assertTrue(events.tasks().isEmpty());
+    }
+
+    @Test
+    public void keepsPollingAfterFailedReceives() throws InterruptedException {
+        sqs.failReceives(5);
+        sqs.publish(EVENT);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (changes.get() == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(1, changes.get());
+        assertEquals(1, events.tasks().size());
+    }
+
+    @Test
+    public void sqsClientRetriesAndOutlastsTheLongPolls() {
+        AwsEcsProperties.Config config = config("socket-timeout-millis", "5000");
+
+        ClientConfiguration sqsClient = EcsTaskEventQueue.clientConfiguration(config);
+        assertEquals(EcsTaskEventQueue.MIN_SOCKET_TIMEOUT_MILLIS, sqsClient.getSocketTimeout());
+        assertEquals(PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY, sqsClient.getMaxErrorRetry());
+        // the ECS client keeps its own settings
+        assertEquals(5000, config.getClientConfiguration().getSocketTimeout());
+        assertEquals(0, config.getClientConfiguration().getMaxErrorRetry());
+
+        assertEquals(
+                60_000,
+                EcsTaskEventQueue.clientConfiguration(config("socket-timeout-millis", "60000"))
+                        .getSocketTimeout());
+    }
+}
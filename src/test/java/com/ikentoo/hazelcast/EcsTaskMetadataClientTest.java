@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Slf4jFactory;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.EnvironmentVariables;
+
+public class EcsTaskMetadataClientTest {
+    @Rule public final EnvironmentVariables environmentVariables = new EnvironmentVariables();
+
+    private final ILogger logger = new Slf4jFactory().getLogger("metadata");
+    private HttpServer server;
+
+    private static final String TASK_METADATA_V4 =
+            "{\n"
+                    + "  \"Cluster\": \"arn:aws:ecs:us-west-2:111122223333:cluster/default\",\n"
+                    + "  \"TaskARN\": \"arn:aws:ecs:us-west-2:111122223333:task/default/158d1c8083dd49d6b527399fd6414f5c\",\n"
+                    + "  \"Family\": \"curltest\",\n"
+                    + "  \"Revision\": \"26\",\n"
+                    + "  \"Containers\": [\n"
+                    + "    {\n"
+                    + "      \"Name\": \"~internal~ecs~pause\",\n"
+                    + "      \"Labels\": {\"com.amazonaws.ecs.cluster\": \"default\"},\n"
+                    + "      \"Limits\": {\"CPU\": 0, \"Memory\": 0},\n"
+                    + "      \"Networks\": [\n"
+                    + "        {\n"
+                    + "          \"NetworkMode\": \"awsvpc\",\n"
+                    + "          \"IPv4Addresses\": [\"10.0.2.106\"],\n"
+                    + "          \"AttachmentIndex\": 0,\n"
+                    + "          \"PrivateDNSName\": null\n"
+                    + "        }\n"
+                    + "      ]\n"
+                    + "    },\n"
+                    + "    {\n"
+                    + "      \"Name\": \"hazelcast\",\n"
+                    + "      \"Networks\": [\n"
+                    + "        {\"NetworkMode\": \"awsvpc\", \"IPv4Addresses\": [\"10.0.2.106\"]}\n"
+                    + "      ]\n"
+                    + "    }\n"
+                    + "  ],\n"
+                    + "  \"PullStartedAt\": \"2020-10-02T00:43:06.202617438Z\",\n"
+                    + "  \"AvailabilityZone\": \"us-west-2d\",\n"
+                    + "  \"LaunchType\": \"EC2\"\n"
+                    + "}";
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void parsesTaskMetadata() throws IOException {
+        EcsTaskMetadataClient.TaskMetadata metadata =
+                EcsTaskMetadataClient.parse(new StringReader(TASK_METADATA_V4));
+
+        assertEquals(
+                "arn:aws:ecs:us-west-2:111122223333:task/default/158d1c8083dd49d6b527399fd6414f5c",
+                metadata.getTaskArn());
+        assertEquals("arn:aws:ecs:us-west-2:111122223333:cluster/default", metadata.getCluster());
+        assertEquals("us-west-2d", metadata.getAvailabilityZone());
+        assertEquals(asList("10.0.2.106"), metadata.getIps());
+    }
+
+    @Test
+    public void readsTheV4Endpoint() {
+        serve(0);
+        environmentVariables.set(
+                "ECS_CONTAINER_METADATA_URI_V4",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v4/metadata");
+
+        EcsTaskMetadataClient.TaskMetadata metadata =
+                new EcsTaskMetadataClient(logger).fetchAsync().join();
+        assertEquals("us-west-2d", metadata.getAvailabilityZone());
+    }
+
+    @Test
+    public void givesUpOnASlowEndpoint() {
+        AtomicInteger requests = serve(2000);
+        environmentVariables.set(
+                "ECS_CONTAINER_METADATA_URI_V4",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v4/metadata");
+
+        long started = System.nanoTime();
+        assertNull(new EcsTaskMetadataClient(logger, 100, 100, 2, 10).fetch());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < 1500);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void withoutMetadataNothingIsRead() {
+        environmentVariables.set("ECS_CONTAINER_METADATA_URI_V4", null);
+        environmentVariables.set("ECS_CONTAINER_METADATA_URI", null);
+        environmentVariables.set("ECS_CONTAINER_METADATA_FILE", null);
+
+        assertNull(new EcsTaskMetadataClient(logger).fetch());
+    }
+
+    private AtomicInteger serve(long delayMillis) {
+        AtomicInteger requests = new AtomicInteger();
+        try {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        server.createContext(
+                "/v4/metadata/task",
+                exchange -> {
+                    requests.incrementAndGet();
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(delayMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    byte[] body = TASK_METADATA_V4.getBytes(UTF_8);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        exchange.sendResponseHeaders(200, body.length);
+                        out.write(body);
+                    } catch (IOException ignored) {
+                        // the client gave up already
+                    }
+                });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return requests;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class JsonReaderTest {
+
+    @Test
+    public void readsValuesAndSkipsNestedOnes() throws IOException {
+        JsonReader json =
+                new JsonReader(
+                        new StringReader(
+                                "{\"skipped\": {\"a\": [1, {\"b\": null}, []], \"c\": {}},"
+                                        + " \"text\": \"a\\\"b\\\\c\\u00e9\\n\","
+                                        + " \"numbers\": [-1.5e2, 42],"
+                                        + " \"flag\": true, \"nothing\": null}"));
+        json.beginObject();
+        assertEquals("skipped", json.nextName());
+        json.skipValue();
+        assertEquals("text", json.nextName());
+        assertEquals("a\"b\\c\u00e9\n", json.nextString());
+        assertEquals("numbers", json.nextName());
+        json.beginArray();
+        assertEquals(-150.0, json.nextDouble(), 0.0);
+        assertEquals(42L, json.nextLong());
+        assertFalse(json.hasNext());
+        json.endArray();
+        assertEquals("flag", json.nextName());
+        assertTrue(json.nextBoolean());
+        assertEquals("nothing", json.nextName());
+        assertNull(json.nextStringOrNull());
+        assertFalse(json.hasNext());
+        json.endObject();
+        assertEquals(JsonReader.Token.END_DOCUMENT, json.peek());
+    }
+
+    @Test
+    public void rejectsMalformedDocuments() {
+        String[] documents = {
+            "{\"a\" 1}", "{\"a\": 1,}", "[1 2]", "{\"a\": tru}", "{\"a\": \"b", "{} {}"
+        };
+        for (String malformed : documents) {
+            try {
+                JsonReader json = new JsonReader(new StringReader(malformed));
+                json.skipValue();
+                json.peek();
+                fail("accepted " + malformed);
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
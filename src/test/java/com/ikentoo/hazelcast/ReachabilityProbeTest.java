@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static com.hazelcast.spi.partitiongroup.PartitionGroupMetaData.PARTITION_GROUP_ZONE;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Slf4jFactory;
+import com.hazelcast.nio.Address;
+import com.hazelcast.spi.discovery.DiscoveryNode;
+import com.hazelcast.spi.discovery.SimpleDiscoveryNode;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Test;
+
+public class ReachabilityProbeTest {
+
+    private final ILogger logger = new Slf4jFactory().getLogger("probe");
+    private final List<ServerSocket> members = new ArrayList<>();
+    /** the round trip time alone orders the nodes */
+    private final Comparator<DiscoveryNode> noPreference = (left, right) -> 0;
+
+    @After
+    public void close() throws IOException {
+        for (ServerSocket member : members) {
+            member.close();
+        }
+    }
+
+    private DiscoveryNode listening() throws IOException {
+        ServerSocket member = new ServerSocket();
+        member.bind(new InetSocketAddress("127.0.0.1", 0));
+        members.add(member);
+        return node(member.getLocalPort());
+    }
+
+    private static DiscoveryNode closed() throws IOException {
+        try (ServerSocket socket = new ServerSocket()) {
+            socket.bind(new InetSocketAddress("127.0.0.1", 0));
+            return node(socket.getLocalPort());
+        }
+    }
+
+    private static DiscoveryNode node(int port) {
+        return new SimpleDiscoveryNode(
+                new Address(AwsEcsDiscoveryStrategy.ipv4("127.0.0.1"), port));
+    }
+
+    private static DiscoveryNode inZone(DiscoveryNode node, String zone) {
+        return new SimpleDiscoveryNode(
+                node.getPrivateAddress(), singletonMap(PARTITION_GROUP_ZONE, zone));
+    }
+
+    private static List<Integer> ports(List<DiscoveryNode> nodes) {
+        return nodes.stream()
+                .map(node -> node.getPrivateAddress().getPort())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void dropsAddressesRefusingConnections() throws IOException {
+        DiscoveryNode first = listening();
+        DiscoveryNode second = listening();
+        List<DiscoveryNode> nodes = asList(closed(), first, closed(), second);
+
+        List<DiscoveryNode> reachable =
+                new ReachabilityProbe(2000, logger).probe(nodes, noPreference);
+
+        assertEquals(ports(asList(first, second)), ports(reachable));
+    }
+
+    @Test
+    public void keepsThePreferredOrderBeforeTheRoundTripTime() throws IOException {
+        DiscoveryNode otherZone = inZone(listening(), "eu-west-1a");
+        DiscoveryNode ownZone = inZone(listening(), "eu-west-1b");
+        Comparator<DiscoveryNode> ownZoneFirst =
+                Comparator.comparing(
+                        node -> !ownZone.getProperties().equals(node.getProperties()));
+
+        List<DiscoveryNode> reachable =
+                new ReachabilityProbe(2000, logger)
+                        .probe(asList(otherZone, closed(), ownZone), ownZoneFirst);
+
+        assertEquals(asList(ownZone, otherZone), reachable);
+    }
+
+    @Test
+    public void returnsAllAddressesWhenNoneAnswers() throws IOException {
+        List<DiscoveryNode> nodes = asList(closed(), closed());
+
+        assertSame(nodes, new ReachabilityProbe(500, logger).probe(nodes, noPreference));
+    }
+}
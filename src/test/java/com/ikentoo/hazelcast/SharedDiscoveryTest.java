@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class SharedDiscoveryTest {
+
+    private final String key = UUID.randomUUID().toString();
+    private final AtomicInteger rounds = new AtomicInteger();
+    private final AtomicInteger joined = new AtomicInteger();
+
+    @Test
+    public void concurrentRoundsShareTheInFlightOne() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Object result = new Object();
+        CompletableFuture<Object> first =
+                CompletableFuture.supplyAsync(
+                        () ->
+                                SharedDiscovery.discover(
+                                        key,
+                                        () -> {
+                                            rounds.incrementAndGet();
+                                            started.countDown();
+                                            await(release);
+                                            return result;
+                                        },
+                                        joined::incrementAndGet));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Object> second =
+                CompletableFuture.supplyAsync(
+                        () -> SharedDiscovery.discover(key, Object::new, joined::incrementAndGet));
+        while (joined.get() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        release.countDown();
+
+        assertSame(result, first.get(5, TimeUnit.SECONDS));
+        assertSame(result, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, rounds.get());
+
+        // nothing is kept once the round completed
+        Object next = SharedDiscovery.discover(key, Object::new, joined::incrementAndGet);
+        assertEquals(1, joined.get());
+        assertEquals(Object.class, next.getClass());
+    }
+
+    @Test
+    public void failuresAreThrownToAllWaitingRounds() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> first =
+                CompletableFuture.supplyAsync(
+                        () ->
+                                SharedDiscovery.discover(
+                                        key,
+                                        () -> {
+                                            started.countDown();
+                                            await(release);
+                                            throw new IllegalStateException("throttled");
+                                        },
+                                        joined::incrementAndGet));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Object> second =
+                CompletableFuture.supplyAsync(
+                        () ->
+                                SharedDiscovery.discover(
+                                        key,
+                                        () -> rounds.incrementAndGet(),
+                                        joined::incrementAndGet));
+        while (joined.get() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        release.countDown();
+
+        for (CompletableFuture<Object> round : Arrays.asList(first, second)) {
+            try {
+                round.get(5, TimeUnit.SECONDS);
+                fail("the failure of the shared round wasn't thrown");
+            } catch (ExecutionException e) {
+                assertEquals("throttled", e.getCause().getMessage());
+            }
+        }
+        assertEquals(0, rounds.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
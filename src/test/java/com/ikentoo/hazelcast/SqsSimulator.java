@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2019, iKentoo SA. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.ikentoo.hazelcast;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ecs.model.Container;
+import com.amazonaws.services.ecs.model.NetworkBinding;
+import com.amazonaws.services.ecs.model.NetworkInterface;
+import com.amazonaws.services.ecs.model.Task;
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process SQS queue receiving ECS task state change events as EventBridge delivers them. Long
+ * polls return after a short wait so that tests don't linger.
+ */
+class SqsSimulator extends AbstractAmazonSQS {
+
+    private static final long MAX_WAIT_MILLIS = 50;
+
+    private final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger failingReceives = new AtomicInteger();
+
+    /** sends the state change event of the task */
+    void publish(Task task) {
+        publish(event(task));
+    }
+
+    void publish(String body) {
+        String id = String.valueOf(nextId.incrementAndGet());
+        messages.add(
+                new Message().withMessageId(id).withReceiptHandle("receipt-" + id).withBody(body));
+    }
+
+    /** the next receives fail like an unavailable SQS */
+    void failReceives(int count) {
+        failingReceives.set(count);
+    }
+
+    /** messages which were neither received nor deleted yet */
+    int pending() {
+        return messages.size() + inFlight.size();
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+        if (failingReceives.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            AmazonServiceException e = new AmazonServiceException("Service Unavailable");
+            e.setErrorCode("ServiceUnavailable");
+            e.setStatusCode(503);
+            e.setServiceName("AmazonSQS");
+            throw e;
+        }
+        List<Message> received = new ArrayList<>();
+        try {
+            Message first = messages.poll(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                received.add(first);
+                messages.drainTo(received, request.getMaxNumberOfMessages() - 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Message message : received) {
+            inFlight.add(message.getReceiptHandle());
+        }
+        return new ReceiveMessageResult().withMessages(received);
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+        for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+            inFlight.remove(entry.getReceiptHandle());
+        }
+        return new DeleteMessageBatchResult();
+    }
+
+    @Override
+    public void shutdown() {}
+
+    /** the EventBridge envelope of an ECS task state change */
+    static String event(Task task) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"version\":\"0\",\"id\":\"")
+                .append(task.getTaskArn().hashCode())
+                .append("\",\"detail-type\":\"ECS Task State Change\",\"source\":\"aws.ecs\",")
+                .append("\"region\":\"eu-west-1\",\"resources\":[\"")
+                .append(task.getTaskArn())
+                .append("\"],\"detail\":{");
+        field(json, "taskArn", task.getTaskArn());
+        field(json, "clusterArn", task.getClusterArn());
+        field(json, "taskDefinitionArn", task.getTaskDefinitionArn());
+        field(json, "group", task.getGroup());
+        field(json, "lastStatus", task.getLastStatus());
+        field(json, "desiredStatus", task.getDesiredStatus());
+        field(json, "healthStatus", task.getHealthStatus());
+        field(json, "stopCode", task.getStopCode());
+        field(json, "availabilityZone", task.getAvailabilityZone());
+        field(json, "launchType", task.getLaunchType());
+        if (task.getVersion() != null) {
+            json.append("\"version\":").append(task.getVersion()).append(',');
+        }
+        json.append("\"containers\":[");
+        for (Container container : task.getContainers()) {
+            json.append('{');
+            field(json, "name", container.getName());
+            field(json, "taskArn", container.getTaskArn());
+            field(json, "lastStatus", container.getLastStatus());
+            field(json, "healthStatus", container.getHealthStatus());
+            json.append("\"networkBindings\":[");
+            for (NetworkBinding binding : container.getNetworkBindings()) {
+                json.append("{\"containerPort\":")
+                        .append(binding.getContainerPort())
+                        .append(",\"hostPort\":")
+                        .append(binding.getHostPort())
+                        .append("},");
+            }
+            trimComma(json);
+            json.append("],\"networkInterfaces\":[");
+            for (NetworkInterface networkInterface : container.getNetworkInterfaces()) {
+                json.append("{\"privateIpv4Address\":\"")
+                        .append(networkInterface.getPrivateIpv4Address())
+                        .append("\"},");
+            }
+            trimComma(json);
+            json.append("]},");
+        }
+        trimComma(json);
+        return json.append("]}}").toString();
+    }
+
+    private static void field(StringBuilder json, String name, String value) {
+        if (value != null) {
+            json.append('"').append(name).append("\":\"").append(value).append("\",");
+        }
+    }
+
+    private static void trimComma(StringBuilder json) {
+        if (json.charAt(json.length() - 1) == ',') {
+            json.setLength(json.length() - 1);
+        }
+    }
+}